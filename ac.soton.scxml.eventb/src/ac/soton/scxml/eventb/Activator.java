@@ -75,5 +75,12 @@ public class Activator extends AbstractUIPlugin {
 	public static void logError(String message) {
 		logError(message,null);
 	}
+	
+	public static void logInfo(String message) {
+		Activator.getDefault().getLog().log(new Status(
+				 IStatus.INFO,
+				 Activator.PLUGIN_ID,
+				 message));
+	}
 
 }
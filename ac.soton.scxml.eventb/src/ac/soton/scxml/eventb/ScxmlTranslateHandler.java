@@ -13,20 +13,38 @@
  *******************************************************************************/
 package ac.soton.scxml.eventb;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+import org.eclipse.core.commands.ExecutionEvent;
 import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.workspace.util.WorkspaceSynchronizer;
+import org.eventb.emf.core.AbstractExtension;
 import org.eventb.emf.core.EventBNamedCommentedComponentElement;
+import org.eventb.emf.core.machine.Machine;
+import org.rodinp.core.RodinCore;
 
 import ac.soton.emf.translator.eventb.handler.EventBTranslateHandler;
 import ac.soton.eventb.emf.diagrams.generator.commands.TranslateAllCommand;
+import ac.soton.eventb.statemachines.Statemachine;
 import ac.soton.scxml.DocumentRoot;
+import ac.soton.scxml.ScxmlScxmlType;
+import ac.soton.scxml.eventb.rules.RuleSchedule;
+import ac.soton.scxml.eventb.utils.IumlbAttributes;
+import ac.soton.scxml.eventb.utils.Utils;
 
 /**
  * <p>
@@ -40,6 +58,41 @@ import ac.soton.scxml.DocumentRoot;
  */
 public class ScxmlTranslateHandler extends EventBTranslateHandler {	
 	
+	private EObject sourceElement = null;
+	
+	/**
+	 * This is overridden to remove the rule schedule and the cached iUML-B attributes from the source model however the translation ends
+	 * (in particular, when it is cancelled by a rule throwing an exception, postProcessing is not reached)
+	 * 
+	 * @param event
+	 * @throws ExecutionException
+	 */
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		try {
+			return super.execute(event);
+		} finally {
+			if (sourceElement!=null){
+				RuleSchedule.remove(sourceElement);
+				IumlbAttributes.removeAll(EcoreUtil.getRootContainer(sourceElement));
+				sourceElement = null;
+			}
+		}
+	}
+	
+	/**
+	 * This is overridden to record the source element so that its cached iUML-B attributes can be removed when the translation ends
+	 * 
+	 * @param sourceElement
+	 * @param commandId
+	 * @param monitor
+	 * @throws Exception 
+	 */
+	protected IStatus preProcessing(EObject sourceElement, String commandId, IProgressMonitor monitor) throws Exception {
+		this.sourceElement = sourceElement;
+		return super.preProcessing(sourceElement, commandId, monitor);
+	}
+	
 	/**
 	 * This is overridden to schedule the iUML-B translators after SCXML translation has finished.
 	 * The components generated by the SCXML generator should still be in the resource set of the editing domain
@@ -55,59 +108,158 @@ public class ScxmlTranslateHandler extends EventBTranslateHandler {
 	protected IStatus postProcessing(EObject sourceElement, String commandId, IProgressMonitor monitor) throws Exception {
 		IStatus status = Status.OK_STATUS;
 		if (sourceElement instanceof DocumentRoot){
-			save(monitor);	//save the resources including the new machines/contexts generated from scxml (this is necessary for the UML-B translations below to work properly)
+			//run the UML-B translations and all of the saves as one workspace operation
+			//so that the Rodin builder (static checker and POG) runs once for the whole translation rather than once per save
+			final IStatus[] result = new IStatus[] {status};
+			RodinCore.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor monitor) throws CoreException {
+					try {
+						result[0] = translateGeneratedMachines(((DocumentRoot)sourceElement).getScxml(), monitor);
+					} catch (CoreException e) {
+						throw e;
+					} catch (Exception e) {
+						throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to translate generated machines: "+e.getMessage(), e));
+					}
+				}
+			}, getSchedulingRule(sourceElement), monitor);
+			status = result[0];
+		}		
+		RuleSchedule ruleSchedule = RuleSchedule.remove(sourceElement);
+		if (ruleSchedule!=null){
+			Activator.logInfo(ruleSchedule.getReport());
+		}
+		monitor.done();
+		return status;
+	}
+	
+	/**
+	 * Saves the components generated by the SCXML translation, then reloads and translates the diagrams of the generated machines
+	 * and saves the results.
+	 * This must be done in a RodinCore runnable
+	 * 
+	 * @param scxml - the source of the generated machines
+	 * @param monitor
+	 * @return the status of the last diagram translation
+	 * @throws Exception
+	 */
+	private IStatus translateGeneratedMachines(ScxmlScxmlType scxml, IProgressMonitor monitor) throws Exception {
+		IStatus status = Status.OK_STATUS;
+		save(monitor);	//save the resources including the new machines/contexts generated from scxml (this is necessary for the UML-B translations below to work properly)
+		
+		//IProject project = WorkspaceSynchronizer.getFile(sourceElement.eResource()).getProject();
+		//EMFRodinDB emfRodinDB = new EMFRodinDB(getEditingDomain());
+		
+		//translate in refinement order so that each machine's abstraction has been translated before it is
+		boolean translated = false;
+		for (Resource r : getGeneratedMachineResources(scxml)) {
+			//only the generated machines that have statemachines need to be translated
+			if (!hasStatemachines(r)) continue;
 			
-			//IProject project = WorkspaceSynchronizer.getFile(sourceElement.eResource()).getProject();
-			//EMFRodinDB emfRodinDB = new EMFRodinDB(getEditingDomain());
+			//reload the resources that were saved above (this is necessary for the UML-B translations below to work properly)
+			//(the in-memory components cannot be handed straight to the UML-B translation instead: its results are then
+			// overwritten by the final save of the SCXML translation - see postProcessing)
+			r.unload();
+			r.load(Collections.EMPTY_MAP);
 			
-			for (Resource r : getEditingDomain().getResourceSet().getResources()) {
-				//reload the resources that were saved above (this is necessary for the UML-B translations below to work properly)
-				r.unload();
-				r.load(Collections.EMPTY_MAP);
+			EObject eo = r.getContents().get(0);
+			if (eo instanceof EventBNamedCommentedComponentElement) {
+				EventBNamedCommentedComponentElement component = (EventBNamedCommentedComponentElement)eo;
 				
-				EObject eo = r.getContents().get(0);
-				if (eo instanceof EventBNamedCommentedComponentElement) {
-					EventBNamedCommentedComponentElement component = (EventBNamedCommentedComponentElement)eo;
-					
 //		//tried approach of saving between each generate but it does not work any better - save and reload above works better
 //					generateDiagrams(component, monitor);
 //					save(monitor);
-					
-					//translate all diagrams
-					TranslateAllCommand translateAllCmd = new TranslateAllCommand(getEditingDomain(),component);
-					if (translateAllCmd.canExecute()){
-						try {
-							status = translateAllCmd.execute(null, null);
-						} catch (ExecutionException e) {
-							e.printStackTrace();
-							Activator.logError("Failed to generated elements: "+e.getMessage());					
-						}
-						if (!status.isOK()){
-							String statusMessage = status.getMessage();
-							for (IStatus childStatus : status.getChildren()){
-								statusMessage = statusMessage+"\n"+childStatus.getMessage();
-							}
-							Activator.logError("Failed to generated elements: "+statusMessage);
-						}else {
-							save(monitor);
+				
+				//translate all diagrams
+				TranslateAllCommand translateAllCmd = new TranslateAllCommand(getEditingDomain(),component);
+				if (translateAllCmd.canExecute()){
+					try {
+						status = translateAllCmd.execute(null, null);
+					} catch (ExecutionException e) {
+						e.printStackTrace();
+						Activator.logError("Failed to generated elements: "+e.getMessage());					
+					}
+					if (!status.isOK()){
+						String statusMessage = status.getMessage();
+						for (IStatus childStatus : status.getChildren()){
+							statusMessage = statusMessage+"\n"+childStatus.getMessage();
 						}
-						
-					}else{
-						// ignore - probably no diagram in that resource
-						//status = Status.CANCEL_STATUS;
+						Activator.logError("Failed to generated elements: "+statusMessage);
+					}else {
+						translated = true;
 					}
+					
+				}else{
+					// ignore - probably no diagram in that resource
+					//status = Status.CANCEL_STATUS;
 				}
 			}
-			//Also tried doing this using jobs.. but they ran too quickly and also got overwritten by the final save of the scxml generator
+		}
+		//save the results of all the UML-B translations together
+		if (translated) {
+			save(monitor);
+		}
+		//Also tried doing this using jobs.. but they ran too quickly and also got overwritten by the final save of the scxml generator
 //			List<EventBNamedCommentedComponentElement> components = emfRodinDB.loadAllComponents(project.getName());
 //			for (EventBNamedCommentedComponentElement cp : components) {
 //				ScheduleDiagramGeneration(getEventBRoot(cp));
 //			}
-		}		
-		monitor.done();
 		return status;
 	}
 	
+	/**
+	 * returns the scheduling rule of the Rodin project containing the given source element
+	 * (or of the whole Rodin database if the source element is not in a workspace file)
+	 * 
+	 * @param sourceElement
+	 * @return
+	 */
+	private static ISchedulingRule getSchedulingRule(EObject sourceElement) {
+		IFile file = WorkspaceSynchronizer.getFile(sourceElement.eResource());
+		if (file==null) {
+			return RodinCore.getRodinDB().getSchedulingRule();
+		}
+		return RodinCore.getRodinDB().getRodinProject(file.getProject().getName()).getSchedulingRule();
+	}
+	
+	/**
+	 * returns the resources of the refinement chain of machines generated from the given scxml, in refinement order (abstract first).
+	 * The resources are found by their full URI in the project of the scxml source,
+	 * so that same-named components of other projects in the resource set are not included.
+	 * (The basis machine and the contexts are not included as they never have statemachines)
+	 * 
+	 * @param scxml
+	 * @return
+	 */
+	private List<Resource> getGeneratedMachineResources(ScxmlScxmlType scxml) {
+		List<Resource> resources = new ArrayList<Resource>();
+		ResourceSet resourceSet = getEditingDomain().getResourceSet();
+		IFile file = WorkspaceSynchronizer.getFile(scxml.eResource());
+		int depth = Utils.getRefinementDepth(scxml);
+		for (int i=0; i<=depth; i++){
+			String fileName = Utils.getMachineName(scxml,i)+".bum";
+			URI uri = file==null?
+					EcoreUtil.getURI(scxml).trimFragment().trimSegments(1).appendSegment(fileName) :
+					URI.createPlatformResourceURI(file.getProject().getName()+"/"+fileName, true);
+			Resource r = resourceSet.getResource(uri, false);
+			if (r!=null) resources.add(r);
+		}
+		return resources;
+	}
+	
+	/**
+	 * returns true if the given resource contains a machine that has statemachines
+	 * 
+	 * @param resource
+	 * @return
+	 */
+	private boolean hasStatemachines(Resource resource) {
+		if (resource.getContents().isEmpty() || !(resource.getContents().get(0) instanceof Machine)) return false;
+		for (AbstractExtension extension : ((Machine)resource.getContents().get(0)).getExtensions()) {
+			if (extension instanceof Statemachine) return true;
+		}
+		return false;
+	}
+	
 	
 	
 //	/**
@@ -15,19 +15,28 @@ package ac.soton.scxml.eventb.rules;
 
 import java.util.List;
 
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EReference;
-import org.eclipse.emf.ecore.EcorePackage;
 import ac.soton.scxml.ScxmlPackage;
 import ac.soton.scxml.ScxmlScxmlType;
+import org.eventb.emf.core.EventBNamed;
+import org.eventb.emf.core.context.Context;
+import org.eventb.emf.core.context.ContextPackage;
+import org.eventb.emf.core.machine.Machine;
+import org.eventb.emf.core.machine.MachinePackage;
 
+import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
 import ac.soton.emf.translator.eventb.rules.AbstractEventBGeneratorRule;
 import ac.soton.emf.translator.utils.Find;
 import ac.soton.eventb.emf.core.extension.coreextension.CoreextensionPackage;
 import ac.soton.eventb.statemachines.StatemachinesPackage;
 import ac.soton.eventb.statemachines.TranslationKind;
-import ac.soton.scxml.eventb.utils.IumlbScxmlAdapter;
+import ac.soton.scxml.eventb.utils.GeneratedElementIndex;
+import ac.soton.scxml.eventb.utils.RefinementLevels;
+import ac.soton.scxml.eventb.utils.ScxmlModelIndex;
+import ac.soton.scxml.eventb.utils.Utils;
 
 
 /**
@@ -50,6 +59,127 @@ public abstract class AbstractSCXMLImporterRule extends AbstractEventBGeneratorR
 	protected static final TranslationKind tkind = TranslationKind.MULTIVAR;
 
 	
+	/**
+	 * checks the dependencies of this rule for the given source element (see checkDependencies)
+	 * unless the rule was not ready for the element and no rule has been ready since
+	 * (i.e. nothing has been generated that could make it ready)
+	 */
+	@Override
+	public final boolean dependenciesOK(EObject sourceElement, List<TranslationDescriptor> translatedElements) throws Exception {
+		RuleSchedule schedule = (RuleSchedule) storage.fetch("ruleSchedule");
+		if (schedule!=null && schedule.isKnownNotReady(this, sourceElement)) return false;
+		boolean ok = checkDependencies(sourceElement, translatedElements);
+		if (schedule!=null) schedule.checked(this, sourceElement, ok);
+		return ok;
+	}
+
+	/**
+	 * returns true if the elements that this rule depends on for the given source element have been generated
+	 * (by default there are none)
+	 * 
+	 * @param sourceElement
+	 * @param translatedElements
+	 * @return
+	 * @throws Exception
+	 */
+	protected boolean checkDependencies(EObject sourceElement, List<TranslationDescriptor> translatedElements) throws Exception {
+		return true;
+	}
+
+	/**
+	 * returns the index of the model being translated that is built by the ScxmlScxmlTypeRule
+	 * (or null if it has not been built)
+	 * 
+	 * @return
+	 */
+	protected ScxmlModelIndex getModelIndex() {
+		return (ScxmlModelIndex) storage.fetch("modelIndex");
+	}
+
+	/**
+	 * returns the machine generated for the given refinement level of the model,
+	 * using the index of generated elements if available, otherwise searching the translated elements
+	 * 
+	 * @param translatedElements
+	 * @param scxml
+	 * @param level
+	 * @return
+	 */
+	protected Machine findMachine(List<TranslationDescriptor> translatedElements, ScxmlScxmlType scxml, int level) {
+		GeneratedElementIndex index = (GeneratedElementIndex) storage.fetch("generatedElements");
+		String name = Utils.getMachineName(scxml, level);
+		Machine machine = index==null? null : (Machine) index.get(level, MachinePackage.Literals.MACHINE, name);
+		if (machine==null) {
+			machine = (Machine) Find.translatedElement(translatedElements, null, null, MachinePackage.Literals.MACHINE, name);
+			if (index!=null && machine!=null) index.put(level, name, machine);
+		}
+		return machine;
+	}
+
+	/**
+	 * returns the context generated for the given refinement level of the model,
+	 * using the index of generated elements if available, otherwise searching the translated elements
+	 * 
+	 * @param translatedElements
+	 * @param scxml
+	 * @param level
+	 * @return
+	 */
+	protected Context findContext(List<TranslationDescriptor> translatedElements, ScxmlScxmlType scxml, int level) {
+		GeneratedElementIndex index = (GeneratedElementIndex) storage.fetch("generatedElements");
+		String name = Utils.getContextName(scxml, level);
+		Context context = index==null? null : (Context) index.get(level, ContextPackage.Literals.CONTEXT, name);
+		if (context==null) {
+			context = (Context) Find.translatedElement(translatedElements, null, null, ContextPackage.Literals.CONTEXT, name);
+			if (index!=null && context!=null) index.put(level, name, context);
+		}
+		return context;
+	}
+
+	/**
+	 * returns the element of the given kind and name in the machine generated for the given refinement level,
+	 * using the index of generated elements if available, otherwise searching the machine
+	 * (elements found by searching are added to the index)
+	 * 
+	 * @param machine
+	 * @param level
+	 * @param kind
+	 * @param name
+	 * @return
+	 */
+	protected EObject findElement(Machine machine, int level, EClass kind, String name) {
+		GeneratedElementIndex index = (GeneratedElementIndex) storage.fetch("generatedElements");
+		EObject element = index==null? null : index.get(level, kind, name);
+		if (element==null) {
+			element = Find.element(machine, null, null, kind, name);
+			if (index!=null && element!=null) index.put(level, name, element);
+		}
+		return element;
+	}
+
+	/**
+	 * adds a generated element to the index of generated elements for the given refinement level
+	 * 
+	 * @param level
+	 * @param element
+	 */
+	protected void addGeneratedElement(int level, EventBNamed element) {
+		GeneratedElementIndex index = (GeneratedElementIndex) storage.fetch("generatedElements");
+		if (index!=null) index.put(level, element.getName(), (EObject) element);
+	}
+
+	/**
+	 * returns the refinement level of the given SCXML element (or IumlbScxmlAdapter)
+	 * using the levels calculated for the whole model by the ScxmlScxmlTypeRule if available
+	 * 
+	 * @param scxml
+	 * @return
+	 */
+	protected int getRefinementLevel(Object scxml) {
+		RefinementLevels levels = (RefinementLevels) storage.fetch("refinementLevels");
+		return levels==null? Utils.getRefinementLevel(scxml) : levels.get(scxml);
+	}
+	
 	/**
 	 * This finds the refinement depth required by the Scxml model containing the given Scxml element
 	 * @param scxml element
@@ -58,16 +188,8 @@ public abstract class AbstractSCXMLImporterRule extends AbstractEventBGeneratorR
 	protected int getRefinementDepth(EObject scxmlElement) {
 		Integer depth = (Integer) storage.fetch("depth");
 		if (depth==null) {
-			IumlbScxmlAdapter adapter = new IumlbScxmlAdapter(null);
-			depth = 0;
 			ScxmlScxmlType scxml = (ScxmlScxmlType) Find.containing(ScxmlPackage.Literals.SCXML_SCXML_TYPE, scxmlElement);
-			List<EObject> eObjects = Find.eAllContents(scxml, EcorePackage.Literals.EOBJECT);
-			for (EObject eObject : eObjects){
-				int ref = (adapter.adapt(eObject)).getBasicRefinementLevel();
-	
-				//int ref = new IumlbScxmlAdapter(eObject).getRefinementLevel();
-				depth = ref>depth? ref : depth;
-			}
+			depth = Utils.getRefinementDepth(scxml);
 			storage.stash("depth",depth);
 		}
 		return depth;
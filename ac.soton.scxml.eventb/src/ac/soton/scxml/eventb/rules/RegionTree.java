@@ -0,0 +1,564 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EObject;
+
+import ac.soton.scxml.ScxmlInitialType;
+import ac.soton.scxml.ScxmlParallelType;
+import ac.soton.scxml.ScxmlStateType;
+import ac.soton.scxml.ScxmlTransitionType;
+
+import ac.soton.scxml.eventb.utils.RegionIndex;
+
+/**
+ * <p>
+ * The part of the SCXML state tree that contains the transitions of a trigger.
+ *
+ * The combinations of a trigger's transitions follow the structure of this tree:
+ * transitions in different children of a parallel can be combined (when the later child is a state)
+ * whereas transitions in different children of anything else cannot.
+ * This allows the number of combinations to be calculated as sums and products over the tree
+ * without enumerating them, and the combinations to be generated as products of the choices made in each region
+ * so that no invalid combination is ever considered.
+ *
+ * Transitions are identified by their dense index in the trigger (see Trigger.getTransition(int)).
+ * Initial transitions cannot be combined with anything so they are kept separately.
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class RegionTree {
+
+	/**
+	 * A node of the tree: an element of the SCXML model that contains some of the trigger's transitions
+	 */
+	protected static class Node {
+		protected EObject element;
+		protected List<Node> children = new ArrayList<Node>();
+		protected List<Integer> transitions = new ArrayList<Integer>();	//transitions that are direct children of this element
+		protected BitSet contained = new BitSet();	//all the transitions within this element
+
+		protected Node(EObject element) {
+			this.element = element;
+		}
+
+		protected boolean isParallel() {
+			return element instanceof ScxmlParallelType;
+		}
+
+		protected boolean isState() {
+			return element instanceof ScxmlStateType;
+		}
+	}
+
+	protected Node root = null;
+	protected List<Integer> initialTransitions = new ArrayList<Integer>();
+
+	/**
+	 * builds the tree for the given (densely indexed) transitions
+	 *
+	 * @param transitions - the transitions of a trigger in dense index order
+	 * @param regionIndex - the region index of the model, used to order the children of parallels
+	 */
+	public RegionTree(List<ScxmlTransitionType> transitions, final RegionIndex regionIndex) {
+		Map<EObject,Node> nodes = new HashMap<EObject,Node>();
+		for (int i=0; i<transitions.size(); i++){
+			ScxmlTransitionType transition = transitions.get(i);
+			EObject container = transition.eContainer();
+			if (container instanceof ScxmlInitialType){
+				initialTransitions.add(i);
+				continue;
+			}
+			Node node = nodes.get(container);
+			boolean isNew = node==null;
+			if (isNew){
+				node = new Node(container);
+				nodes.put(container, node);
+			}
+			node.transitions.add(i);
+			//link new nodes up to the root
+			while (isNew){
+				EObject parent = node.element.eContainer();
+				if (parent==null){
+					root = node;
+					break;
+				}
+				Node parentNode = nodes.get(parent);
+				isNew = parentNode==null;
+				if (isNew){
+					parentNode = new Node(parent);
+					nodes.put(parent, parentNode);
+				}
+				parentNode.children.add(node);
+				node = parentNode;
+			}
+		}
+		//the children of a parallel are ordered as in the model since this affects which can be combined
+		for (Node node : nodes.values()){
+			if (node.isParallel()){
+				Collections.sort(node.children, new Comparator<Node>() {
+					@Override
+					public int compare(Node a, Node b) {
+						return Integer.compare(regionIndex.positionOf(a.element), regionIndex.positionOf(b.element));
+					}
+				});
+			}
+		}
+		if (root!=null) collectContained(root);
+	}
+	
+	private BitSet collectContained(Node node) {
+		for (int i : node.transitions){
+			node.contained.set(i);
+		}
+		for (Node child : node.children){
+			node.contained.or(collectContained(child));
+		}
+		return node.contained;
+	}
+
+	/**
+	 * returns the exact number of combinations of the transitions in the given mask.
+	 * (The count saturates at Long.MAX_VALUE)
+	 *
+	 * @param mask - the transitions to be considered (e.g. those present at a refinement level)
+	 * @return
+	 */
+	public long countCombinations(BitSet mask) {
+		long count = root==null? 0 : count(root, mask) - 1;
+		for (int i : initialTransitions){
+			if (mask.get(i)) count = add(count, 1);
+		}
+		return count;
+	}
+
+	/**
+	 * returns the number of combinations within the given node, including the empty combination.
+	 *
+	 * Transitions of a node that is not a parallel can only be combined with transitions outside the node,
+	 * so its count is the sum of the non-empty counts of its transitions and children.
+	 * For a parallel, a combination chooses a set of its children, all of which must be states except possibly the first,
+	 * and then a non-empty combination within each chosen child.
+	 *
+	 * @param node
+	 * @param mask
+	 * @return
+	 */
+	private long count(Node node, BitSet mask) {
+		long count = 1;
+		for (int i : node.transitions){
+			if (mask.get(i)) count = add(count, 1);
+		}
+		if (node.isParallel()){
+			long statesAfter = 1;	//number of combinations (including empty) of the state children after the current one
+			for (int c = node.children.size()-1; c>=0; c--){
+				Node child = node.children.get(c);
+				long childCount = count(child, mask);
+				count = add(count, multiply(childCount-1, statesAfter));
+				if (child.isState()){
+					statesAfter = multiply(statesAfter, childCount);
+				}
+			}
+		}else{
+			for (Node child : node.children){
+				count = add(count, count(child, mask)-1);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * returns the exact number of maximal combinations of the transitions in the given mask
+	 * (i.e. those that cannot be extended by any other transition in the mask).
+	 * (The count saturates at Long.MAX_VALUE)
+	 *
+	 * @param mask - the transitions to be considered (e.g. those present at a refinement level)
+	 * @return
+	 */
+	public long countMaximalCombinations(BitSet mask) {
+		long count = root==null || !root.contained.intersects(mask)? 0 : countMaximal(root, mask);
+		for (int i : initialTransitions){
+			if (mask.get(i)) count = add(count, 1);
+		}
+		return count;
+	}
+
+	/**
+	 * returns the number of maximal combinations within the given node (which must contain some of the mask)
+	 * (see maximalCombinations)
+	 */
+	private long countMaximal(Node node, BitSet mask) {
+		long count = 0;
+		for (int i : node.transitions){
+			if (mask.get(i)) count = add(count, 1);
+		}
+		List<Node> children = presentChildren(node, mask);
+		if (node.isParallel()){
+			long statesAfter = 1;	//number of maximal combinations of all the state children after the current one
+			for (int c = children.size()-1; c>=0; c--){
+				Node child = children.get(c);
+				long childCount = countMaximal(child, mask);
+				if (c==0 || !child.isState()){
+					count = add(count, multiply(childCount, statesAfter));
+				}
+				if (child.isState()){
+					statesAfter = multiply(statesAfter, childCount);
+				}
+			}
+		}else{
+			for (Node child : children){
+				count = add(count, countMaximal(child, mask));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * returns the maximal combinations of the transitions in the given mask
+	 * (i.e. those that cannot be extended by any other transition in the mask).
+	 * The combinations are generated lazily and each combination returned is a new BitSet.
+	 *
+	 * @param mask - the transitions to be considered (e.g. those present at a refinement level)
+	 * @return
+	 */
+	public Iterable<BitSet> getMaximalCombinations(BitSet mask) {
+		List<Iterable<BitSet>> alternatives = new ArrayList<Iterable<BitSet>>();
+		if (root!=null && root.contained.intersects(mask)){
+			alternatives.add(maximalCombinations(root, mask));
+		}
+		for (int i : initialTransitions){
+			if (mask.get(i)) alternatives.add(singleton(i));
+		}
+		return concat(alternatives);
+	}
+
+	/**
+	 * returns the maximal combinations within the given node (which must contain some of the mask).
+	 *
+	 * All the transitions in a node can be combined with the same transitions outside it,
+	 * so a combination is maximal overall if it is made of maximal combinations of the nodes it uses.
+	 * For a parallel, the combination must include all the states following the first child that it uses,
+	 * and that first child must either be the first of the parallel's children or one that is not a state
+	 * (otherwise the first child could be added).
+	 *
+	 * @param node
+	 * @param mask
+	 * @return
+	 */
+	private Iterable<BitSet> maximalCombinations(Node node, BitSet mask) {
+		List<Iterable<BitSet>> alternatives = new ArrayList<Iterable<BitSet>>();
+		for (int i : node.transitions){
+			if (mask.get(i)) alternatives.add(singleton(i));
+		}
+		List<Node> children = presentChildren(node, mask);
+		List<Iterable<BitSet>> choices = new ArrayList<Iterable<BitSet>>();
+		for (Node child : children){
+			choices.add(maximalCombinations(child, mask));
+		}
+		if (node.isParallel()){
+			for (int a=0; a<children.size(); a++){
+				if (a>0 && children.get(a).isState()) continue;
+				List<Iterable<BitSet>> factors = new ArrayList<Iterable<BitSet>>();
+				factors.add(choices.get(a));
+				for (int b=a+1; b<children.size(); b++){
+					if (children.get(b).isState()){
+						factors.add(choices.get(b));
+					}
+				}
+				alternatives.add(factors.size()==1? factors.get(0) : product(factors));
+			}
+		}else{
+			alternatives.addAll(choices);
+		}
+		return concat(alternatives);
+	}
+
+	/**
+	 * returns the children of the given node that contain transitions in the given mask
+	 */
+	private static List<Node> presentChildren(Node node, BitSet mask) {
+		List<Node> children = new ArrayList<Node>();
+		for (Node child : node.children){
+			if (child.contained.intersects(mask)) children.add(child);
+		}
+		return children;
+	}
+
+	/**
+	 * returns the combinations of the transitions in the given mask.
+	 * The combinations are generated lazily, as products of the combinations chosen in each region,
+	 * so the work done is proportional to the number of combinations returned.
+	 * Each combination returned is a new BitSet.
+	 *
+	 * @param mask - the transitions to be considered (e.g. those present at a refinement level)
+	 * @return
+	 */
+	public Iterable<BitSet> getCombinations(BitSet mask) {
+		List<Iterable<BitSet>> alternatives = new ArrayList<Iterable<BitSet>>();
+		if (root!=null && root.contained.intersects(mask)){
+			alternatives.add(combinations(root, mask, -1));
+		}
+		for (int i : initialTransitions){
+			if (mask.get(i)) alternatives.add(singleton(i));
+		}
+		return concat(alternatives);
+	}
+
+	/**
+	 * returns the combinations of the transitions in the given mask that contain the given transition.
+	 * This only generates the wanted combinations.
+	 *
+	 * @param mask - the transitions to be considered (e.g. those present at a refinement level)
+	 * @param required - the dense index of a transition in the mask
+	 * @return
+	 */
+	public Iterable<BitSet> getCombinations(BitSet mask, int required) {
+		if (!mask.get(required)) return Collections.<BitSet>emptyList();
+		if (initialTransitions.contains(required)) return singleton(required);
+		return combinations(root, mask, required);
+	}
+
+	/**
+	 * returns the non-empty combinations within the given node
+	 * (if required is not -1, only those that contain the required transition, which must be within the node)
+	 *
+	 * A node's own transitions can only be combined with transitions outside it, so they are single alternatives.
+	 * For a node that is not a parallel, the other alternatives are the combinations of each of its children.
+	 * For a parallel, each alternative chooses the first child to take part, and that is combined with
+	 * (optionally) each of the following children that is a state.
+	 *
+	 * @param node
+	 * @param mask
+	 * @param required
+	 * @return
+	 */
+	private Iterable<BitSet> combinations(Node node, BitSet mask, int required) {
+		List<Iterable<BitSet>> alternatives = new ArrayList<Iterable<BitSet>>();
+		if (required>=0 && node.transitions.contains(required)){
+			return singleton(required);
+		}
+		for (int i : node.transitions){
+			if (required<0 && mask.get(i)) alternatives.add(singleton(i));
+		}
+		List<Node> children = new ArrayList<Node>();
+		int path = -1;	//the child that contains the required transition
+		for (Node child : node.children){
+			if (child.contained.intersects(mask)){
+				if (required>=0 && child.contained.get(required)) path = children.size();
+				children.add(child);
+			}
+		}
+		List<Iterable<BitSet>> choices = new ArrayList<Iterable<BitSet>>();
+		for (int c=0; c<children.size(); c++){
+			choices.add(required<0 || c==path? combinations(children.get(c), mask, c==path? required : -1) : null);
+		}
+		if (node.isParallel()){
+			for (int a=0; a<children.size(); a++){
+				if (required>=0){
+					//the required child must be chosen, either first or as a following state
+					if (a>path) break;
+					if (a<path && !children.get(path).isState()) continue;
+					if (a<path) choices.set(a, combinations(children.get(a), mask, -1));
+				}
+				List<Iterable<BitSet>> factors = new ArrayList<Iterable<BitSet>>();
+				factors.add(choices.get(a));
+				for (int b=a+1; b<children.size(); b++){
+					if (b==path){
+						factors.add(choices.get(b));
+					}else if (children.get(b).isState()){
+						if (choices.get(b)==null) choices.set(b, combinations(children.get(b), mask, -1));
+						factors.add(optional(choices.get(b)));
+					}
+				}
+				alternatives.add(factors.size()==1? factors.get(0) : product(factors));
+			}
+		}else{
+			for (int c=0; c<children.size(); c++){
+				if (required<0 || c==path) alternatives.add(choices.get(c));
+			}
+		}
+		return concat(alternatives);
+	}
+
+	/**
+	 * returns the combination that contains only the given transition
+	 */
+	private static Iterable<BitSet> singleton(final int i) {
+		return new Iterable<BitSet>() {
+			@Override
+			public Iterator<BitSet> iterator() {
+				BitSet combination = new BitSet();
+				combination.set(i);
+				return Collections.singletonList(combination).iterator();
+			}
+		};
+	}
+
+	/**
+	 * returns the given combinations preceded by the empty combination
+	 */
+	private static Iterable<BitSet> optional(Iterable<BitSet> combinations) {
+		List<Iterable<BitSet>> alternatives = new ArrayList<Iterable<BitSet>>();
+		alternatives.add(Collections.singletonList(new BitSet()));
+		alternatives.add(combinations);
+		return concat(alternatives);
+	}
+
+	/**
+	 * returns all the combinations of each of the given alternatives in turn
+	 */
+	private static Iterable<BitSet> concat(final List<Iterable<BitSet>> alternatives) {
+		if (alternatives.size()==1) return alternatives.get(0);
+		return new Iterable<BitSet>() {
+			@Override
+			public Iterator<BitSet> iterator() {
+				return new Iterator<BitSet>() {
+					private int alternative = 0;
+					private Iterator<BitSet> current = Collections.<BitSet>emptyList().iterator();
+
+					@Override
+					public boolean hasNext() {
+						while (!current.hasNext() && alternative < alternatives.size()){
+							current = alternatives.get(alternative++).iterator();
+						}
+						return current.hasNext();
+					}
+
+					@Override
+					public BitSet next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						return current.next();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * returns the unions of one combination from each of the given factors, for every choice of combinations
+	 */
+	private static Iterable<BitSet> product(final List<Iterable<BitSet>> factors) {
+		return new Iterable<BitSet>() {
+			@Override
+			public Iterator<BitSet> iterator() {
+				return new Iterator<BitSet>() {
+					private final int size = factors.size();
+					@SuppressWarnings("unchecked")
+					private final Iterator<BitSet>[] iterators = new Iterator[size];
+					private final BitSet[] current = new BitSet[size];
+					private boolean hasNext = start(0);
+
+					/**
+					 * restarts the factors from the given one onwards, returning false if any is empty
+					 */
+					private boolean start(int from) {
+						for (int k=from; k<size; k++){
+							iterators[k] = factors.get(k).iterator();
+							if (!iterators[k].hasNext()) return false;
+							current[k] = iterators[k].next();
+						}
+						return true;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return hasNext;
+					}
+
+					@Override
+					public BitSet next() {
+						if (!hasNext) throw new NoSuchElementException();
+						BitSet combination = new BitSet();
+						for (BitSet part : current){
+							combination.or(part);
+						}
+						//advance the last factor that has more combinations and restart those after it
+						hasNext = false;
+						for (int k=size-1; k>=0 && !hasNext; k--){
+							if (iterators[k].hasNext()){
+								current[k] = iterators[k].next();
+								hasNext = start(k+1);
+							}
+						}
+						return combination;
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * returns the names of the regions (children of parallels) that contain transitions in the given mask
+	 *
+	 * @param mask
+	 * @return
+	 */
+	public Set<String> getRegionNames(BitSet mask) {
+		Set<String> names = new LinkedHashSet<String>();
+		if (root!=null) collectRegionNames(root, mask, names);
+		return names;
+	}
+
+	private boolean collectRegionNames(Node node, BitSet mask, Set<String> names) {
+		boolean present = false;
+		for (int i : node.transitions){
+			present = present || mask.get(i);
+		}
+		for (Node child : node.children){
+			if (collectRegionNames(child, mask, names)){
+				present = true;
+				if (node.isParallel()){
+					names.add(getName(child.element));
+				}
+			}
+		}
+		return present;
+	}
+
+	private static String getName(EObject element) {
+		if (element instanceof ScxmlStateType) return ((ScxmlStateType)element).getId();
+		if (element instanceof ScxmlParallelType) return ((ScxmlParallelType)element).getId();
+		return element.eClass().getName();
+	}
+
+	private static long add(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	private static long multiply(long a, long b) {
+		if (a==0 || b==0) return 0;
+		return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+package ac.soton.scxml.eventb.rules;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+import ac.soton.emf.translator.configuration.IRule;
+
+/**
+ * <p>
+ * A record of the dependency checks made by the SCXML rules during a translation.
+ *
+ * The translator retries a rule whose dependencies are not ready until they are.
+ * The dependencies of the SCXML rules are elements generated by other rules, so the answer can only change
+ * when another rule fires. Each rule and source element that was not ready is recorded with the
+ * number of rules that had been ready at the time, so that a retry can be answered without checking again
+ * until another rule has become ready.
+ * 
+ * This relies on the translator checking the dependencies of a rule (dependenciesOK) immediately before it fires it,
+ * so that every firing is counted as ready. This is also true of the rules that fire late (fireLate),
+ * which are deferred until the other rules have fired and are then checked again before firing.
+ * If a rule could fire without that check, the elements it generates would not be counted and
+ * the rules waiting for them would remain recorded as not ready.
+ * 
+ * The schedule of a translation is attached as an adapter to the root of its source model,
+ * so that the handler can report it when the translation has finished (see attach and remove).
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class RuleSchedule extends AdapterImpl {
+
+	private final Map<Class<? extends IRule>, Map<EObject, Integer>> notReady = new HashMap<Class<? extends IRule>, Map<EObject, Integer>>();
+	private int ready = 0;
+	private long checks = 0;
+	private long skipped = 0;
+
+	/**
+	 * attaches a new RuleSchedule adapter to the root of the given source element, replacing any that it has
+	 *
+	 * @param sourceElement
+	 * @return the new schedule
+	 */
+	public static RuleSchedule attach(EObject sourceElement) {
+		EObject root = EcoreUtil.getRootContainer(sourceElement);
+		remove(root);
+		RuleSchedule schedule = new RuleSchedule();
+		root.eAdapters().add(schedule);
+		return schedule;
+	}
+
+	/**
+	 * removes the RuleSchedule adapter from the root of the given source element
+	 *
+	 * @param sourceElement
+	 * @return the schedule that was removed or null if there was none
+	 */
+	public static RuleSchedule remove(EObject sourceElement) {
+		EObject root = EcoreUtil.getRootContainer(sourceElement);
+		RuleSchedule schedule = (RuleSchedule) EcoreUtil.getExistingAdapter(root, RuleSchedule.class);
+		if (schedule!=null){
+			root.eAdapters().remove(schedule);
+		}
+		return schedule;
+	}
+
+	@Override
+	public boolean isAdapterForType(Object type) {
+		return type == RuleSchedule.class;
+	}
+
+	/**
+	 * returns true if the given rule was not ready for the given source element and no rule has been ready since
+	 * (in which case it still cannot be ready)
+	 *
+	 * @param rule
+	 * @param sourceElement
+	 * @return
+	 */
+	public boolean isKnownNotReady(IRule rule, EObject sourceElement) {
+		checks++;
+		Map<EObject, Integer> elements = notReady.get(rule.getClass());
+		Integer when = elements==null? null : elements.get(sourceElement);
+		if (when!=null && when==ready) {
+			skipped++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * records the result of checking the dependencies of the given rule for the given source element
+	 *
+	 * @param rule
+	 * @param sourceElement
+	 * @param ok
+	 */
+	public void checked(IRule rule, EObject sourceElement, boolean ok) {
+		Map<EObject, Integer> elements = notReady.get(rule.getClass());
+		if (ok) {
+			ready++;
+			if (elements!=null) elements.remove(sourceElement);
+		}else {
+			if (elements==null) {
+				elements = new IdentityHashMap<EObject, Integer>();
+				notReady.put(rule.getClass(), elements);
+			}
+			elements.put(sourceElement, ready);
+		}
+	}
+
+	/**
+	 * returns a textual description of the number of dependency checks made and saved
+	 * @return
+	 */
+	public String getReport() {
+		return "SCXML rule dependency checks: "+checks+" requested, "+skipped+" answered without checking, "+ready+" ready";
+	}
+}
@@ -19,7 +19,6 @@ import java.util.List;
 import org.eclipse.emf.ecore.EObject;
 import org.eventb.emf.core.context.CarrierSet;
 import org.eventb.emf.core.context.Context;
-import org.eventb.emf.core.context.ContextPackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -34,7 +33,6 @@ import ac.soton.scxml.ScxmlStateType;
 import ac.soton.scxml.eventb.strings.Strings;
 import ac.soton.scxml.eventb.utils.IumlbScxmlAdapter;
 import ac.soton.scxml.eventb.utils.Make;
-import ac.soton.scxml.eventb.utils.Utils;
 
 public class ScxmlDataTypeCarrierSetRule extends AbstractSCXMLImporterRule implements IRule {
 
@@ -55,11 +53,11 @@ public class ScxmlDataTypeCarrierSetRule extends AbstractSCXMLImporterRule imple
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlDataType scxml = (ScxmlDataType)sourceElement;
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);	
+		int refinementLevel = getRefinementLevel(sourceElement);	
 		
-		context  = (Context) Find.translatedElement(generatedElements, null, null, ContextPackage.Literals.CONTEXT, Utils.getContextName(scxmlContainer,refinementLevel));
+		context  = findContext(generatedElements, scxmlContainer, refinementLevel);
 		if (context == null)  return false;
 		
 		State state = null;
@@ -20,7 +20,6 @@ import org.eclipse.emf.ecore.EObject;
 import org.eventb.emf.core.context.Axiom;
 import org.eventb.emf.core.context.Constant;
 import org.eventb.emf.core.context.Context;
-import org.eventb.emf.core.context.ContextPackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -56,12 +55,12 @@ public class ScxmlDataTypeConstantRule extends AbstractSCXMLImporterRule impleme
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlDataType scxml = (ScxmlDataType)sourceElement;
 
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);		
+		int refinementLevel = getRefinementLevel(sourceElement);		
 		
-		context  = (Context) Find.translatedElement(generatedElements, null, null, ContextPackage.Literals.CONTEXT, Utils.getContextName(scxmlContainer,refinementLevel));
+		context  = findContext(generatedElements, scxmlContainer, refinementLevel);
 		if (context == null)  return false;
 		
 		State state = null;
@@ -64,14 +64,14 @@ public class ScxmlDataTypeRule extends AbstractSCXMLImporterRule implements IRul
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlDataType scxml = (ScxmlDataType)sourceElement;
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
 		int depth = getRefinementDepth(sourceElement);		
 		
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(generatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));	
+			Machine m = findMachine(generatedElements, scxmlContainer, i);	
 			if (m == null)  return false;
 			Event initialisation = (Event) Find.translatedElement(generatedElements, m, events, MachinePackage.Literals.EVENT, "INITIALISATION");
 			if (initialisation == null) return false;
@@ -24,7 +24,6 @@ import ac.soton.scxml.ScxmlPackage;
 import ac.soton.scxml.ScxmlScxmlType;
 import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -36,7 +35,6 @@ import ac.soton.eventb.statemachines.Statemachine;
 import ac.soton.eventb.statemachines.StatemachinesPackage;
 import ac.soton.eventb.statemachines.Transition;
 import ac.soton.scxml.eventb.utils.Make;
-import ac.soton.scxml.eventb.utils.Utils;
 
 
 /**
@@ -75,15 +73,15 @@ public class ScxmlFinalType2FinalRule extends AbstractSCXMLImporterRule implemen
 	 * 
 	 */
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
 		String finalName = ((ScxmlFinalType) sourceElement).getId();
 		String parentSmName = (stateContainer==null? scxmlContainer.getName() : stateContainer.getId())+"_sm";
 		statemachines.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
 		int depth = getRefinementDepth(sourceElement);
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(translatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
-			Statemachine sm = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
+			Machine m = findMachine(translatedElements, scxmlContainer, i);
+			Statemachine sm = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
 			if (sm==null) return false;
 			//check that the 'pre-final' state has already been generated from the ScxmlFinal
 			statemachines.add(sm);
@@ -23,7 +23,6 @@ import ac.soton.scxml.ScxmlPackage;
 import ac.soton.scxml.ScxmlScxmlType;
 import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -40,6 +39,7 @@ public class ScxmlFinalType2StateRule extends AbstractSCXMLImporterRule implemen
 	ScxmlScxmlType scxmlContainer=null;
 	ScxmlStateType stateContainer=null;
 	List<Statemachine> statemachines = new ArrayList<Statemachine>();
+	int baseLevel = 0;
 
 	
 	@Override
@@ -55,15 +55,16 @@ public class ScxmlFinalType2StateRule extends AbstractSCXMLImporterRule implemen
 	 * 
 	 */
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
 		((ScxmlFinalType) sourceElement).getId();
 		String parentSmName = (stateContainer==null? scxmlContainer.getName() : stateContainer.getId())+"_sm";
 		statemachines.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
+		baseLevel = refinementLevel;
 		int depth = getRefinementDepth(sourceElement);
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(translatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
-			Statemachine sm = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
+			Machine m = findMachine(translatedElements, scxmlContainer, i);
+			Statemachine sm = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
 			if (sm==null) return false;
 			statemachines.add(sm);			
 		}
@@ -82,7 +83,7 @@ public class ScxmlFinalType2StateRule extends AbstractSCXMLImporterRule implemen
 		ScxmlFinalType scxmlFinal = (ScxmlFinalType)sourceElement;
 
 		State state = null;
-		
+		int level = baseLevel;
 		for (Statemachine sm : statemachines){
 			if (state==null){
 				state = (State)Make.state(scxmlFinal.getId(), "");
@@ -91,6 +92,7 @@ public class ScxmlFinalType2StateRule extends AbstractSCXMLImporterRule implemen
 			}
 
 			sm.getNodes().add(state);
+			addGeneratedElement(level++, state);
 			
 		}
 		return Collections.emptyList();
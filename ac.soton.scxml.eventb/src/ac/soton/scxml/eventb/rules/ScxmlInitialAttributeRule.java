@@ -32,7 +32,6 @@ import ac.soton.eventb.statemachines.Statemachine;
 import ac.soton.eventb.statemachines.StatemachinesPackage;
 import ac.soton.eventb.statemachines.Transition;
 import ac.soton.scxml.eventb.utils.Make;
-import ac.soton.scxml.eventb.utils.Utils;
 
 public class ScxmlInitialAttributeRule extends AbstractSCXMLImporterRule implements IRule {
 	
@@ -51,15 +50,15 @@ public class ScxmlInitialAttributeRule extends AbstractSCXMLImporterRule impleme
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlScxmlType scxmlContainer = (ScxmlScxmlType)  sourceElement;
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
 		int depth = getRefinementDepth(sourceElement);
 		for (int i=refinementLevel; i<=depth; i++){
 			Refinement ref = new Refinement();
-			Machine m = (Machine) Find.translatedElement(generatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
-			ref.statemachine = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, scxmlContainer.getName()+"_sm"); 
+			Machine m = findMachine(generatedElements, scxmlContainer, i);
+			ref.statemachine = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, scxmlContainer.getName()+"_sm"); 
 			ref.initialisation= (Event) Find.element(m, m, events, MachinePackage.Literals.EVENT, "INITIALISATION");
 			if (ref.statemachine==null || ref.initialisation==null) return false;
 			ref.targets.clear();
@@ -31,7 +31,6 @@ import ac.soton.scxml.ScxmlTransitionType;
 import org.eventb.emf.core.machine.Action;
 import org.eventb.emf.core.machine.Guard;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -45,8 +44,8 @@ import ac.soton.eventb.statemachines.Transition;
 import ac.soton.scxml.eventb.strings.Strings;
 import ac.soton.scxml.eventb.utils.IumlbScxmlAdapter;
 import ac.soton.scxml.eventb.utils.Make;
+import ac.soton.scxml.eventb.utils.ScxmlModelIndex;
 import ac.soton.scxml.eventb.utils.Refinement;
-import ac.soton.scxml.eventb.utils.Utils;
 
 /**
  * This rule translates SCXML initial transitions into 
@@ -70,7 +69,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		
 		ScxmlStateType stateContainer = (ScxmlStateType) Find.containing(ScxmlPackage.Literals.SCXML_STATE_TYPE, sourceElement.eContainer().eContainer());
 		//the immediate container state may be in a parallel. If so, the true parent state is the state containing the parallel
@@ -79,7 +78,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 		boolean dependOnIncomers = parentState==null? false :  isATarget(parentState);
 		
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
 		int depth = getRefinementDepth(sourceElement);		
 		String parentSmName = (stateContainer==null? scxmlContainer.getName() : stateContainer.getId())+"_sm";
 		
@@ -87,22 +86,22 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 			Refinement ref = new Refinement();
 			ref.level = i;
 			//check machine is created
-			Machine m = (Machine) Find.translatedElement(generatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
+			Machine m = findMachine(generatedElements, scxmlContainer, i);
 			ref.machine = m;
 			if (ref.machine == null) 
 				return false;
 			//check statemachine is created
-			ref.statemachine = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
+			ref.statemachine = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
 			if (ref.statemachine == null) 
 				return false;
 			//check source node is created
 			String sourceStateName = sourceElement.eContainer() instanceof ScxmlInitialType? ref.statemachine.getName()+"_initialState" : null;
-			ref.source = (AbstractNode) Find.element(m, null, null, StatemachinesPackage.Literals.ABSTRACT_NODE, sourceStateName);
+			ref.source = (AbstractNode) findElement(m, i, StatemachinesPackage.Literals.ABSTRACT_NODE, sourceStateName);
 			if (ref.source == null) 
 				return false;	
 			//check target node is created
 			String targetStateName = ((ScxmlTransitionType) sourceElement).getTarget().get(0);		//we only support single target - ignore the rest
-			ref.target = (AbstractNode) Find.element(m, null, null, StatemachinesPackage.Literals.ABSTRACT_NODE, targetStateName);
+			ref.target = (AbstractNode) findElement(m, i, StatemachinesPackage.Literals.ABSTRACT_NODE, targetStateName);
 			if (ref.target == null) 
 				return false;
 			//if scxml parent is target, check whether the parent state of the statemachine has its incomers yet
@@ -132,6 +131,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 
 	/**
 	 * checks whether the given state is the target of an initial transition
+	 * (in the machine that contains it, so that initial transitions that are introduced at a later refinement level are not included)
 	 * @param state
 	 * @return
 	 */
@@ -177,36 +177,17 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 	 * @return
 	 */
 	private boolean isATarget(ScxmlStateType state) {
-		if (state==null) return false;
+		if (state==null || state.getId()==null) return false;
+		ScxmlModelIndex index = getModelIndex();
 		ScxmlStateType parentState = findParentState(state);
 		if (parentState==null) {
-			if (state.eContainer() instanceof ScxmlScxmlType){
-				List<String> ins = ((ScxmlScxmlType)state.eContainer()).getInitial();
-				if (ins==null) return false;		//<<<no initial state specified - model is not well-formed
-				for (String initialName : ins){
-					if (initialName != null && initialName.equals(state.getId())) return true;
-				}
-			}
-		}else{
-			List<String> ins = parentState.getInitial1();
-			if (ins!=null){
-				for (String initialName : ins){
-					if (initialName != null && initialName.equals(state.getId())) return true;
-				}
-			}
-			for (ScxmlStateType siblingState : parentState.getState()){
-				for (ScxmlTransitionType tr : siblingState.getTransition()){
-					for (String targetName : tr.getTarget()){
-						if (targetName != null && targetName.equals(state.getId())) return true;
-					}
-				}
-			}
-			for (ScxmlInitialType siblingState : parentState.getInitial()){
-				ScxmlTransitionType tr = siblingState.getTransition();
-				for (String targetName : tr.getTarget()){
-					if (targetName != null && targetName.equals(state.getId())) return true;
-				}
-			}
+			return state.eContainer() instanceof ScxmlScxmlType && index.getInitialReferences(state.getId()).contains(state.eContainer());
+		}
+		if (index.getInitialReferences(state.getId()).contains(parentState)) return true;
+		//transitions of sibling states and initials
+		for (ScxmlTransitionType tr : index.getTransitionsTo(state.getId())){
+			EObject source = tr.eContainer();
+			if ((source instanceof ScxmlStateType || source instanceof ScxmlInitialType) && source.eContainer()==parentState) return true;
 		}
 		return false;
 	}
@@ -244,7 +225,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 			String raiseList = "";
 			// set parameter value for raised triggers
 			for (ScxmlRaiseType raise : scxmlTransition.getRaise()){
-				if(Utils.getRefinementLevel(raise) <= ref.level){
+				if(getRefinementLevel(raise) <= ref.level){
 					raiseList = raiseList.length()==0? raise.getEvent() : ","+raise.getEvent();
 				}
 			}	
@@ -263,7 +244,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 			//add any explicit guards of the scxml transition
 			List<IumlbScxmlAdapter> gds = new IumlbScxmlAdapter(scxmlTransition).getGuards();
 			for (IumlbScxmlAdapter gd : gds){
-				int rl = Utils.getRefinementLevel(gd);
+				int rl = getRefinementLevel(gd);
 				if (rl <= ref.level){
 					String name = (String)gd.getAnyAttributeValue("name");
 					String derived = (String)gd.getAnyAttributeValue("derived");
@@ -277,7 +258,7 @@ public class ScxmlInitialTransitionTypeRule extends AbstractSCXMLImporterRule im
 			//add any explicit actions of the scxml transition (assigns in SCXML)
 			int i=0;
 			for (ScxmlAssignType assign : scxmlTransition.getAssign()){
-				if(Utils.getRefinementLevel(assign) <= ref.level){
+				if(getRefinementLevel(assign) <= ref.level){
 					Action action = (Action) Make.action(transition.getLabel()+"_act_"+i, Strings.ASSIGN_ACTION(assign), "SCXML transition assign");
 					transition.getActions().add(action);
 					i++;
@@ -25,7 +25,6 @@ import ac.soton.scxml.ScxmlScxmlType;
 import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.machine.Action;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -34,7 +33,6 @@ import ac.soton.eventb.statemachines.State;
 import ac.soton.eventb.statemachines.StatemachinesPackage;
 import ac.soton.scxml.eventb.strings.Strings;
 import ac.soton.scxml.eventb.utils.Make;
-import ac.soton.scxml.eventb.utils.Utils;
 
 public class ScxmlOnentryTypeRule extends AbstractSCXMLImporterRule implements IRule {
 
@@ -51,14 +49,14 @@ public class ScxmlOnentryTypeRule extends AbstractSCXMLImporterRule implements I
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlScxmlType scxmlContainer = (ScxmlScxmlType) Find.containing(ScxmlPackage.Literals.SCXML_SCXML_TYPE, sourceElement);
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);
+		int refinementLevel = getRefinementLevel(sourceElement);
 		int depth = getRefinementDepth(sourceElement);
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(generatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
-			State st =  (State) Find.element(m, null, nodes, StatemachinesPackage.Literals.STATE, stateContainer.getId());
+			Machine m = findMachine(generatedElements, scxmlContainer, i);
+			State st =  (State) findElement(m, i, StatemachinesPackage.Literals.STATE, stateContainer.getId());
 			if (st==null) return false;
 			
 			RefinementLevelDescriptor ref = new RefinementLevelDescriptor();
@@ -74,7 +72,7 @@ public class ScxmlOnentryTypeRule extends AbstractSCXMLImporterRule implements I
 		for (RefinementLevelDescriptor ref : refinements){ 
 			int i=0;
 			for (ScxmlAssignType assign : ((ScxmlOnentryType)sourceElement).getAssign()){
-				if(Utils.getRefinementLevel(assign) <= ref.level){
+				if(getRefinementLevel(assign) <= ref.level){
 					Action action = (Action) Make.action(stateContainer.getId()+"_onentry_"+i, Strings.ASSIGN_ACTION(assign));
 					ref.state.getEntryActions().add(action);
 					i++;
@@ -14,18 +14,16 @@
 package ac.soton.scxml.eventb.rules;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.eclipse.emf.common.util.EList;
-import org.eclipse.emf.common.util.TreeIterator;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import ac.soton.scxml.ScxmlRaiseType;
+import ac.soton.scxml.ScxmlParallelType;
 import ac.soton.scxml.ScxmlScxmlType;
-import ac.soton.scxml.ScxmlTransitionType;
+import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.EventBNamedCommentedComponentElement;
 import org.eventb.emf.core.Project;
 import org.eventb.emf.core.context.Axiom;
@@ -45,28 +43,46 @@ import ac.soton.emf.translator.configuration.IRule;
 import ac.soton.eventb.emf.core.extension.navigator.refiner.AbstractElementRefiner;
 import ac.soton.eventb.emf.core.extension.navigator.refiner.ElementRefinerRegistry;
 import ac.soton.eventb.statemachines.Statemachine;
+import ac.soton.scxml.eventb.Activator;
 import ac.soton.scxml.eventb.strings.Strings;
+import ac.soton.scxml.eventb.utils.GeneratedElementIndex;
 import ac.soton.scxml.eventb.utils.IumlbScxmlAdapter;
 import ac.soton.scxml.eventb.utils.Make;
+import ac.soton.scxml.eventb.utils.ScxmlModelIndex;
+import ac.soton.scxml.eventb.utils.SymmetryDetector;
 import ac.soton.scxml.eventb.utils.Utils;
 
 public class ScxmlScxmlTypeRule extends AbstractSCXMLImporterRule implements IRule {
+	
+	//used when the scxml element does not have a combinationBudget attribute
+	private static final long defaultCombinationBudget = 10000;
 			
 	@Override
 	public List<TranslationDescriptor> fire(EObject sourceElement, List<TranslationDescriptor> generatedElements) throws Exception {
 		
 		// Reset the storage
 		storage.reset();
+		//index the generated machines, contexts, statemachines and nodes for the rules to find their dependencies
+		storage.stash("generatedElements", new GeneratedElementIndex());
+		//record the dependency checks of the rules so that retries can be answered until something is generated
+		storage.stash("ruleSchedule", RuleSchedule.attach(sourceElement));
 
 		ScxmlScxmlType scxml = (ScxmlScxmlType)sourceElement;
 		
-		//find triggers and set up data for them in the storage
-		//(triggers are only represented in the scxml model by string attributes of transitions 
-		// so much of their details are implicit - hence the need to calculate this before the translation starts)
-		Map<String, Trigger> triggers =  findTriggers(scxml);
+		//index the model in one pass, for all the rules to use
+		//(this includes the refinement level of every element and the triggers - which are only represented
+		// in the scxml model by string attributes of transitions so much of their details are implicit)
+		ScxmlModelIndex index = new ScxmlModelIndex(scxml);
+		storage.stash("modelIndex", index);
+		storage.stash("refinementLevels", index.getRefinementLevels());
+		storage.stash("depth", index.getDepth());
+		Map<String, Trigger> triggers =  index.getTriggers();
 		storage.stash("triggers", triggers);
 		
 		int depth = getRefinementDepth(sourceElement);
+		checkCombinationBudget(scxml, triggers, depth, index);
+		reportEventCounts(scxml, triggers, depth);
+		
 		List<TranslationDescriptor> ret = new ArrayList<TranslationDescriptor>();
 		String fileName = scxml.eResource().getURI().toPlatformString(true);
 
@@ -84,11 +100,14 @@ public class ScxmlScxmlTypeRule extends AbstractSCXMLImporterRule implements IRu
 		String allTriggers = null;
 		String allExternals = null;
 		String allInternals = null;
+		//the invariants of the scxml element (each is added at its refinement level)
+		List<IumlbScxmlAdapter> invs = new IumlbScxmlAdapter(scxml).getinvariants();
 		//create the refinement chain of machines
 		for (int i=0; i<=depth; i++){
 			
 			// make a new machine by refining the previous level
 			machine = (Machine) refine (scxml, machine, Utils.getMachineName(scxml,i), Strings.generatedFromFileComment(fileName));
+			addGeneratedElement(i, machine);
 			//set all events as extended rather than copied and add extra guards to 'future' events
 			for (Event e : machine.getEvents()){
 				if (!e.getRefines().isEmpty()){
@@ -121,6 +140,7 @@ public class ScxmlScxmlTypeRule extends AbstractSCXMLImporterRule implements IRu
 			ret.add(Make.descriptor(project, components, machine ,1));
 			// make a new context by refining the previous level
 			context = (Context) refine (scxml, context, Utils.getContextName(scxml,i), Strings.generatedFromFileComment(fileName));
+			addGeneratedElement(i, context);
 			//create the descriptor to put the machine in the project
 			ret.add(Make.descriptor(project, components, context ,1));
 			
@@ -131,10 +151,10 @@ public class ScxmlScxmlTypeRule extends AbstractSCXMLImporterRule implements IRu
 			if (i==0){
 				Statemachine statemachine = (Statemachine) Make.statemachine(statechartName, tkind, "");
 				machine.getExtensions().add(statemachine);
+				addGeneratedElement(i, statemachine);
 			}
 			
 			//add any invariants that are for this refinement level
-			List<IumlbScxmlAdapter> invs = new IumlbScxmlAdapter(scxml).getinvariants();
 			for (IumlbScxmlAdapter inv : invs){
 				int refLevel = inv.getBasicRefinementLevel();
 				if (refLevel==-1) refLevel = 0;
@@ -243,48 +263,90 @@ public class ScxmlScxmlTypeRule extends AbstractSCXMLImporterRule implements IRu
 	
 
 	/**
-	 * calculate trigger data for the Scxml model
+	 * checks that no trigger has more transition combinations than the budget allows.
+	 * The combinations are counted (not enumerated) so this is quick even when there are far too many to generate.
+	 * (In maximal step mode, the maximal combinations of each level are counted first, since the combinations used 
+	 * at a level are found from the maximal combinations of that and later levels. The combinations used are then
+	 * enumerated level by level, stopping as soon as the budget is exceeded.)
+	 * If the budget is exceeded the translation is cancelled with a report of the trigger, its regions
+	 * (and any of them that are replicas of each other) and the number of combinations at each refinement level.
 	 * 
 	 * @param scxml
+	 * @param triggers
+	 * @param depth
+	 * @param index
 	 * @throws Exception 
 	 */
-	private Map<String, Trigger> findTriggers(ScxmlScxmlType scxml) throws Exception {
-		Map<String, Trigger> triggers = new HashMap<String,Trigger>();
-		//iterate over the entire model looking for transitions
-		//(trigger names are defined by string attribute 'event' of a transition and
-		// also by a transition's collection of ScxmlRaiseType elements).
-		TreeIterator<EObject> it = scxml.eAllContents();
-		while (it.hasNext()){
-			EObject next = it.next(); 
-			if (next instanceof ScxmlTransitionType){ 
-				ScxmlTransitionType scxmlTransition = (ScxmlTransitionType)next;
-				
-				//record any trigger that triggers this transition (including the null trigger)
-				String triggerName = scxmlTransition.getEvent();
-				if (triggerName==null || triggerName.trim().length()==0) triggerName = "null"; //make sure it is not an empty identifier
-				Trigger trigger = triggers.get(triggerName);
-				if (trigger == null){
-					trigger = new Trigger(triggerName);
-					triggers.put(triggerName, trigger);
-				}		
-				trigger.addTriggeredTransition(scxmlTransition);
-					
-				//record any triggers raised by this transition
-				EList<ScxmlRaiseType> raises = scxmlTransition.getRaise();
-				for (ScxmlRaiseType raise : raises){
-					String raisedTriggerName = raise.getEvent();
-					Trigger raisedTrigger = triggers.get(raisedTriggerName);
-					if (raisedTrigger == null){
-						raisedTrigger = new Trigger(raisedTriggerName);
-						triggers.put(raisedTriggerName, raisedTrigger);
-					}		
-					raisedTrigger.addRaisedByTransition(raise);
+	private void checkCombinationBudget(ScxmlScxmlType scxml, Map<String, Trigger> triggers, int depth, ScxmlModelIndex index) throws Exception {
+		long budget = new IumlbScxmlAdapter(scxml).getCombinationBudget();
+		if (budget < 0) budget = defaultCombinationBudget;
+		for (Trigger trigger : triggers.values()){
+			long[] count = new long[depth+1];
+			int splitLevel = -1;
+			for (int i=0; i<=depth; i++){
+				count[i] = trigger.isMaximalStep()? trigger.countMaximalCombinations(i) : trigger.countCombinations(i);
+				if (splitLevel<0 && count[i] > budget) splitLevel = i;
+			}
+			boolean bounded = false;
+			if (trigger.isMaximalStep() && splitLevel<0){
+				//also count the parts of the maximal combinations of later levels that are used at each level
+				bounded = true;
+				for (int i=0; i<=depth; i++){
+					count[i] = trigger.countMaximalStepCombinations(i, budget);
+					if (splitLevel<0 && count[i] > budget) splitLevel = i;
 				}
 			}
-		}	
-		return triggers;
+			if (splitLevel<0) continue;
+			String counts = "";
+			for (int i=0; i<=depth; i++){
+				counts = counts + "\n  level "+i+": "+(bounded && count[i] > budget? "more than "+budget : ""+count[i]);
+			}
+			String report = "Translation cancelled: trigger '"+trigger.getName()+"' has too many transition combinations (budget "+budget+")."
+					+"\nRegions: "+trigger.getRegionNames(depth)
+					+"\nCombinations at each refinement level:"+counts
+					+"\nThe budget is first exceeded at refinement level "+splitLevel+" - consider introducing some of the transitions that it adds in "
+					+trigger.getRegionNames(splitLevel)+" at a later refinement level, or raise the combinationBudget attribute.";
+			//find which of the trigger's regions are replicas of each other (only the parallels containing them are examined)
+			Set<String> regionNames = trigger.getRegionNames(depth);
+			List<ScxmlParallelType> parallels = new ArrayList<ScxmlParallelType>();
+			for (ScxmlParallelType parallel : index.getParallels()){
+				for (ScxmlStateType region : parallel.getState()){
+					if (regionNames.contains(region.getId())){
+						parallels.add(parallel);
+						break;
+					}
+				}
+			}
+			String replicas = new SymmetryDetector(parallels).getReport(regionNames);
+			if (replicas.length()>0){
+				report = report + "\nReplicated regions (each permutation of these is a separate combination):"+replicas;
+			}
+			Activator.logError(report);
+			//(the exception stops the translation)
+			throw new Exception(report);
+		}
 	}
 	
+	/**
+	 * reports the number of events that will be generated for combinations of triggered transitions at each refinement level
+	 * 
+	 * @param scxml
+	 * @param triggers
+	 * @param depth
+	 */
+	private void reportEventCounts(ScxmlScxmlType scxml, Map<String, Trigger> triggers, int depth) {
+		String report = "SCXML translation of "+scxml.getName()
+				+(new IumlbScxmlAdapter(scxml).isMaximalStep()? " (maximal step)" : "")
+				+" - events for transition combinations at each refinement level:";
+		for (int i=0; i<=depth; i++){
+			long count = 0;
+			for (Trigger trigger : triggers.values()){
+				count = count + trigger.countEvents(i);
+			}
+			report = report + "\n  level "+i+": "+count;
+		}
+		Activator.logInfo(report);
+	}
 	
 	/*********************************************************
 	 * The remainder generates the basis context and machine
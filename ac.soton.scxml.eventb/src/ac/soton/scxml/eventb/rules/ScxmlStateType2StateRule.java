@@ -23,7 +23,6 @@ import ac.soton.scxml.ScxmlScxmlType;
 import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.machine.Invariant;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -65,14 +64,14 @@ public class ScxmlStateType2StateRule extends AbstractSCXMLImporterRule implemen
 	 * 
 	 */
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement);  
+		int refinementLevel = getRefinementLevel(sourceElement);  
 		int depth = getRefinementDepth(sourceElement);
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(translatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
+			Machine m = findMachine(translatedElements, scxmlContainer, i);
 			String parentSmName = (stateContainer==null? scxmlContainer.getName() : stateContainer.getId())+"_sm";
-			Statemachine psm = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
+			Statemachine psm = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
 			if (psm==null) return false;
 			
 			RefinementLevelDescriptor ref = new RefinementLevelDescriptor();
@@ -98,6 +97,7 @@ public class ScxmlStateType2StateRule extends AbstractSCXMLImporterRule implemen
 				state = (State) Utils.refine(scxmlContainer, state);
 			}
 			psm.getNodes().add(state);
+			addGeneratedElement(ref.level, state);
 			
 			List<IumlbScxmlAdapter> invs = new IumlbScxmlAdapter(scxmlState).getinvariants();
 			for (IumlbScxmlAdapter inv : invs){
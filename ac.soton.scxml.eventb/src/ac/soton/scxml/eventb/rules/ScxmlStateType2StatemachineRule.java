@@ -22,11 +22,11 @@ import ac.soton.scxml.ScxmlPackage;
 import ac.soton.scxml.ScxmlScxmlType;
 import ac.soton.scxml.ScxmlStateType;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
 import ac.soton.emf.translator.utils.Find;
+import ac.soton.eventb.statemachines.AbstractNode;
 import ac.soton.eventb.statemachines.Initial;
 import ac.soton.eventb.statemachines.Statemachine;
 import ac.soton.eventb.statemachines.StatemachineOwner;
@@ -40,6 +40,7 @@ public class ScxmlStateType2StatemachineRule extends AbstractSCXMLImporterRule i
 	ScxmlScxmlType scxmlContainer=null;
 	ScxmlStateType stateContainer=null;
 	List<StatemachineOwner> smOwners = new ArrayList<StatemachineOwner>();
+	int baseLevel = 0;
 
 	@Override
 	public boolean enabled(final EObject sourceElement) throws Exception  {
@@ -56,10 +57,11 @@ public class ScxmlStateType2StatemachineRule extends AbstractSCXMLImporterRule i
 	 * 
 	 */
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> translatedElements) throws Exception  {
 		smOwners.clear();
 		//the statemachine should be added at the refinement level of one of the sourceElement's child states, not the refinment level of the sourceElement
-		int refinementLevel = Utils.getRefinementLevel(((ScxmlStateType)sourceElement).getState().get(0));  
+		int refinementLevel = getRefinementLevel(((ScxmlStateType)sourceElement).getState().get(0));  
+		baseLevel = refinementLevel;
 		int depth = getRefinementDepth(sourceElement);
 		String smOwnerName = null;
 		if (sourceElement.eContainer().eClass() ==ScxmlPackage.Literals.SCXML_PARALLEL_TYPE){
@@ -68,8 +70,8 @@ public class ScxmlStateType2StatemachineRule extends AbstractSCXMLImporterRule i
 			smOwnerName = ((ScxmlStateType)sourceElement).getId();
 		}
 		for (int i=refinementLevel; i<=depth; i++){
-			Machine m = (Machine) Find.translatedElement(translatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
-			StatemachineOwner smo = (StatemachineOwner) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE_OWNER, smOwnerName);
+			Machine m = findMachine(translatedElements, scxmlContainer, i);
+			StatemachineOwner smo = (StatemachineOwner) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE_OWNER, smOwnerName);
 			if (smo==null) 
 				return false;
 			smOwners.add(smo);				
@@ -84,6 +86,7 @@ public class ScxmlStateType2StatemachineRule extends AbstractSCXMLImporterRule i
 		
 		String nestedSmName = scxmlState.getId()+"_sm";
 		Statemachine statemachine = null;
+		int level = baseLevel;
 		for (StatemachineOwner owner : smOwners){
 			if (statemachine==null){
 				statemachine = (Statemachine) Make.statemachine(nestedSmName, tkind, "");
@@ -95,6 +98,11 @@ public class ScxmlStateType2StatemachineRule extends AbstractSCXMLImporterRule i
 				statemachine = (Statemachine) Utils.refine(scxmlContainer, statemachine);
 			}
 			owner.getStatemachines().add(statemachine);
+			addGeneratedElement(level, statemachine);
+			for (AbstractNode node : statemachine.getNodes()){
+				addGeneratedElement(level, node);
+			}
+			level++;
 		}
 		return Collections.emptyList();
 	}
@@ -14,20 +14,18 @@
 package ac.soton.scxml.eventb.rules;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
-import org.eventb.emf.core.EventBNamed;
 import org.eventb.emf.core.machine.Action;
 import org.eventb.emf.core.machine.Event;
 import org.eventb.emf.core.machine.Guard;
 import org.eventb.emf.core.machine.Machine;
-import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
 import ac.soton.emf.translator.configuration.IRule;
@@ -47,6 +45,7 @@ import ac.soton.scxml.ScxmlTransitionType;
 import ac.soton.scxml.eventb.strings.Strings;
 import ac.soton.scxml.eventb.utils.IumlbScxmlAdapter;
 import ac.soton.scxml.eventb.utils.Make;
+import ac.soton.scxml.eventb.utils.NamedElementRegistry;
 import ac.soton.scxml.eventb.utils.Refinement;
 import ac.soton.scxml.eventb.utils.Utils;
 
@@ -68,7 +67,7 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 	}
 	
 	@Override
-	public boolean dependenciesOK(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
+	protected boolean checkDependencies(EObject sourceElement, final List<TranslationDescriptor> generatedElements) throws Exception  {
 		ScxmlScxmlType scxmlContainer = (ScxmlScxmlType) Find.containing(ScxmlPackage.Literals.SCXML_SCXML_TYPE, sourceElement);
 		ScxmlStateType stateContainer = (ScxmlStateType) Find.containing(ScxmlPackage.Literals.SCXML_STATE_TYPE, sourceElement.eContainer().eContainer());
 		if (sourceElement.eContainer().eContainer().eClass() ==ScxmlPackage.Literals.SCXML_PARALLEL_TYPE && 
@@ -80,19 +79,19 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			}
 		}
 		refinements.clear();
-		int refinementLevel = Utils.getRefinementLevel(sourceElement); 
+		int refinementLevel = getRefinementLevel(sourceElement); 
 		int depth = getRefinementDepth(sourceElement);		
 		String parentSmName = (stateContainer==null? scxmlContainer.getName() : stateContainer.getId())+"_sm";
 		
 		for (int i=refinementLevel; i<=depth; i++){
 			Refinement ref = new Refinement();
 			ref.level = i;
-			Machine m = (Machine) Find.translatedElement(generatedElements, null, null, MachinePackage.Literals.MACHINE, Utils.getMachineName(scxmlContainer,i));
+			Machine m = findMachine(generatedElements, scxmlContainer, i);
 			ref.machine = m;
 			if (ref.machine == null) 
 				return false;
 			
-			ref.statemachine = (Statemachine) Find.element(m, null, null, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
+			ref.statemachine = (Statemachine) findElement(m, i, StatemachinesPackage.Literals.STATEMACHINE, parentSmName);
 			if (ref.statemachine == null) 
 				return false;
 			
@@ -100,11 +99,11 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			String sourceStateName = container instanceof ScxmlStateType? 
 										((ScxmlStateType)sourceElement.eContainer()).getId() :
 										null;
-			ref.source = (AbstractNode) Find.element(m, null, null, StatemachinesPackage.Literals.ABSTRACT_NODE, sourceStateName);
+			ref.source = (AbstractNode) findElement(m, i, StatemachinesPackage.Literals.ABSTRACT_NODE, sourceStateName);
 			if (ref.source == null) 
 				return false;	
 			String targetStateName = ((ScxmlTransitionType) sourceElement).getTarget().get(0);		//we only support single target - ignore the rest
-			ref.target = (AbstractNode) Find.element(m, null, null, StatemachinesPackage.Literals.ABSTRACT_NODE, targetStateName);
+			ref.target = (AbstractNode) findElement(m, i, StatemachinesPackage.Literals.ABSTRACT_NODE, targetStateName);
 			if (ref.target == null) 
 				return false;
 			refinements.add(ref);
@@ -147,13 +146,12 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 					continue;
 				}
 				
-				for (Set<ScxmlTransitionType> combi : trigger.getTransitionCombinations(ref.level, getRefinementDepth(sourceElement))){
-					if (combi != null) {
-						if (combi.contains(scxmlTransition)) { 
-							Event event = Utils.getOrCreateEvent(ref, translatedElements, trigger, combi, getRefinementDepth(sourceElement));
-							//create/find an event to elaborate
-							transition.getElaborates().add(event);
-						}
+				int index = trigger.indexOf(scxmlTransition);
+				if (index >= 0) {
+					for (BitSet combi : trigger.getTransitionCombinations(index, ref.level)){
+						Event event = Utils.getOrCreateEvent(ref, translatedElements, trigger, combi);
+						//create/find an event to elaborate
+						transition.getElaborates().add(event);
 					}
 				}
 				
@@ -161,7 +159,7 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 				String raiseList = "";
 				// set parameter value for raised triggers
 				for (ScxmlRaiseType raise : scxmlTransition.getRaise()){
-					if(Utils.getRefinementLevel(raise) <= ref.level){
+					if(getRefinementLevel(raise) <= ref.level){
 						raiseList = raiseList.length()==0? raise.getEvent() : raiseList + ","+raise.getEvent();
 					}
 				}	
@@ -185,7 +183,7 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			//add any explicit parameters of the scxml transition
 			List<IumlbScxmlAdapter> prms = new IumlbScxmlAdapter(scxmlTransition).getAnyChildren("parameter");
 			for (IumlbScxmlAdapter prm : prms){
-				int rl = Utils.getRefinementLevel(prm);
+				int rl = getRefinementLevel(prm);
 				if (rl <= ref.level){
 					String name = (String)prm.getAnyAttributeValue("name");
 					String type = (String)prm.getAnyAttributeValue("type");
@@ -198,7 +196,7 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			//add any explicit guards of the scxml transition
 			List<IumlbScxmlAdapter> gds = new IumlbScxmlAdapter(scxmlTransition).getGuards();
 			for (IumlbScxmlAdapter gd : gds){
-				int rl = Utils.getRefinementLevel(gd);
+				int rl = getRefinementLevel(gd);
 				if (rl <= ref.level){
 					String name = (String)gd.getAnyAttributeValue("name");
 					boolean derived = Boolean.parseBoolean((String)gd.getAnyAttributeValue("derived"));
@@ -215,7 +213,7 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			//add any explicit actions of the scxml transition (assigns in SCXML)
 			int i=0;
 			for (ScxmlAssignType assign : scxmlTransition.getAssign()){
-				if(Utils.getRefinementLevel(assign) <= ref.level){
+				if(getRefinementLevel(assign) <= ref.level){
 					Action action = (Action) Make.action(transition.getLabel()+"_act_"+i, Strings.ASSIGN_ACTION(assign), "SCXML transition assign");
 					transition.getActions().add(action);
 					i++;
@@ -225,14 +223,14 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 			completionGuard = completionGuard+ ")";
 			if (finalised>0 && ref.level>=finalised ) {
 				if ("null".equals(scxmlTransitionEvent)) {
-					toFinalise.add((Event) Find.element(ref.machine, ref.machine, MachinePackage.Literals.MACHINE__EVENTS, MachinePackage.Literals.EVENT, Strings.completionEventName));
+					toFinalise.add(NamedElementRegistry.getEvents(ref.machine).get(Strings.completionEventName));
 				}else {
-					toFinalise.add((Event) Find.element(ref.machine, ref.machine, MachinePackage.Literals.MACHINE__EVENTS, MachinePackage.Literals.EVENT, Strings.noTriggeredTransitionsEnabledEventName));
+					toFinalise.add(NamedElementRegistry.getEvents(ref.machine).get(Strings.noTriggeredTransitionsEnabledEventName));
 				}
 				for (Event event : toFinalise){
 					if (event != null) {
 						String completionGuardName = Strings.CompletionGuardName(transition.getLabel());
-						if (findNamedElementInEvent(ref, event, MachinePackage.Literals.GUARD, completionGuardName)==null) {
+						if (findGuardInEvent(ref, event, completionGuardName)==null) {
 							Guard guard = (Guard) Make.guard(completionGuardName, completionGuard);
 							event.getGuards().add(guard);
 						}
@@ -245,22 +243,21 @@ public class ScxmlTransitionTypeRule extends AbstractSCXMLImporterRule implement
 	}
 
 	/**
-	 * Find element in event with extension	
+	 * Find guard in event with extension
+	 * (using the guard registries of the event and, if it is extended, the events it refines)
 	 * @param ref 
 	 */
-		public EventBNamed findNamedElementInEvent(Refinement ref, Event event, EClass eClass, String name){
-			for (EObject element : event.getAllContained(eClass, true)){
-				if (element instanceof EventBNamed && name.equals(((EventBNamed)element).getName())) 
-					return (EventBNamed) element;
-			}
+		public Guard findGuardInEvent(Refinement ref, Event event, String name){
+			Guard guard = NamedElementRegistry.getGuards(event).get(name);
+			if (guard!=null) return guard;
 			int refinementsIndex = ref.level - refinements.get(0).level; //levels start from >0 so need to adjust index
 			if (event.isExtended() & refinementsIndex>0) {
 				Refinement abst = refinements.get(refinementsIndex-1);
 				Event refinedEvent = event.getRefines().get(0);
 				if (refinedEvent.eIsProxy()) {		// cannot resolve because resources have not been saved yet.
-					refinedEvent = (Event) Utils.findNamedElement(abst.machine.getEvents(), event.getName());
+					refinedEvent = NamedElementRegistry.getEvents(abst.machine).get(event.getName());
 				}
-				return findNamedElementInEvent(abst, refinedEvent, eClass, name);
+				return findGuardInEvent(abst, refinedEvent, name);
 			}else {
 				return null;
 			}
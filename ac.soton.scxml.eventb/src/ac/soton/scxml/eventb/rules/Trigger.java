@@ -17,22 +17,20 @@
 package ac.soton.scxml.eventb.rules;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.eclipse.emf.common.util.TreeIterator;
-import org.eclipse.emf.ecore.EObject;
-import ac.soton.scxml.ScxmlInitialType;
-import ac.soton.scxml.ScxmlParallelType;
 import ac.soton.scxml.ScxmlRaiseType;
-import ac.soton.scxml.ScxmlStateType;
 import ac.soton.scxml.ScxmlTransitionType;
 
-import ac.soton.scxml.eventb.utils.Utils;
+import ac.soton.scxml.eventb.utils.RefinementLevels;
+import ac.soton.scxml.eventb.utils.RegionIndex;
 
 /**
  * <p>
@@ -46,6 +44,17 @@ import ac.soton.scxml.eventb.utils.Utils;
  * As soon as any of the getter or query methods are used (except getName) it switches mode and its records can no longer
  * be added to. This ensures that the Trigger is used in a consistent way.
  * 
+ * When finalised, each triggered transition is given a dense index (in the order the transitions were added)
+ * and combinations of transitions are represented as BitSet masks over that index.
+ * Combinations are not stored. They are generated on demand for a requested refinement level
+ * (from the refinement levels of the transitions) and streamed to the caller.
+ * They are generated (and counted) over the regions of the state tree that contain the trigger's transitions
+ * (see RegionTree).
+ * 
+ * In maximal step mode, only the maximal combinations of each refinement level are used, together with
+ * the parts of the maximal combinations of later levels that are present at that level
+ * (so that every combination refines a combination of the previous level, or none).
+ * 
  * </p>
  * 
  * @author cfs
@@ -57,13 +66,34 @@ public class Trigger {
 
 	protected String name;
 	protected Integer refinementLevel = null;
-	protected Set<ScxmlTransitionType> triggeredTransitions = new HashSet<ScxmlTransitionType>();
+	protected Set<ScxmlTransitionType> triggeredTransitions = new LinkedHashSet<ScxmlTransitionType>();
 	protected Set<ScxmlTransitionType> raisedByTransitions = new HashSet<ScxmlTransitionType>();	
-	protected Map<Integer,Set<Set<ScxmlTransitionType>>> combinations = null; //new HashSet<Set<ScxmlTransitionType>>();
 	protected boolean finalised = false;
 	
-	public Trigger (String name){
+	//dense index of the triggered transitions (built when the combinations are first needed)
+	protected List<ScxmlTransitionType> indexedTransitions = null;
+	protected Map<ScxmlTransitionType,Integer> transitionIndex = null;
+	protected int[] transitionLevels = null;
+	protected Map<Integer,BitSet> levelMasks = new HashMap<Integer,BitSet>();
+	protected Map<Integer,Map<BitSet,String>> refinesNames = new HashMap<Integer,Map<BitSet,String>>();
+	protected RegionTree regionTree = null;
+	protected boolean maximalStep = false;
+	protected Map<Integer,List<BitSet>> maximalStepCombinations = new HashMap<Integer,List<BitSet>>();	//keyed by refinement level
+	
+	//region index of the model that contains the transitions
+	protected RegionIndex regionIndex;
+	//refinement levels of all the elements of the model
+	protected RefinementLevels levels;
+	
+	public Trigger (String name, RegionIndex regionIndex, RefinementLevels levels){
+		this(name, regionIndex, levels, false);
+	}
+	
+	public Trigger (String name, RegionIndex regionIndex, RefinementLevels levels, boolean maximalStep){
 		this.name = name;
+		this.regionIndex = regionIndex;
+		this.levels = levels;
+		this.maximalStep = maximalStep;
 	}
 	
 	public String getName(){
@@ -82,14 +112,14 @@ public class Trigger {
 	
 	public boolean addTriggeredTransition(ScxmlTransitionType newTransition) throws Exception{
 		if (finalised == true) throw new Exception("Attempt to update Trigger that has been finalised");
-		updateLevel (Utils.getRefinementLevel(newTransition));
+		updateLevel (levels.get(newTransition));
 		return triggeredTransitions.add(newTransition);
 	}
 	
 	public boolean addRaisedByTransition(ScxmlRaiseType raise) throws Exception{
 		if (finalised == true) throw new Exception("Attempt to update Trigger that has been finalised");
 		ScxmlTransitionType newTransition = (ScxmlTransitionType) raise.eContainer();
-		updateLevel (Utils.getRefinementLevel(raise));
+		updateLevel (levels.get(raise));
 		return raisedByTransitions.add(newTransition);
 	}
 	
@@ -119,157 +149,342 @@ public class Trigger {
 	}
 	
 	
-	public Set<Set<ScxmlTransitionType>> getTransitionCombinations(int level, int depth) {
-		finalised = true;
-		if (combinations==null){
-			combinations= new HashMap<Integer,Set<Set<ScxmlTransitionType>>>();
-			//calculate all the possible combinations irrespective of refinements
-			Set<Set<ScxmlTransitionType>> rawCombinations=
-					getCombinations(new ArrayList<ScxmlTransitionType>(getTriggeredTransitions()));
-			//store in refinement level mapping
-			for (Set<ScxmlTransitionType> combination : rawCombinations){
-				int refLevel = -1;
-				for (ScxmlTransitionType tr : combination){
-					int trRefLevel = Utils.getRefinementLevel(tr);
-					if (trRefLevel>refLevel){
-						refLevel = trRefLevel;
-					}
-				}
-				Set<Set<ScxmlTransitionType>> temp;
-				for (int l=refLevel; l<depth+1; l++){
-					if (combinations.containsKey(l)){
-						temp = combinations.get(l);
-					}else{
-						temp = new HashSet<Set<ScxmlTransitionType>>();
-					}
-					temp.add(combination);
-					combinations.put(l, temp);
-				}
-			}			
-		}
-		if (combinations.get(level)== null){
-			return Collections.emptySet();
-		}else{
-			return Collections.unmodifiableSet(combinations.get(level));
-		}
-		
+	/**
+	 * returns the dense index of the given transition within this trigger's triggered transitions
+	 * or -1 if the transition is not triggered by this trigger
+	 * @param transition
+	 * @return
+	 */
+	public int indexOf(ScxmlTransitionType transition) {
+		buildIndex();
+		Integer index = transitionIndex.get(transition);
+		return index==null? -1 : index;
 	}
-		
-	public boolean isExternal() {
-		finalised = true;
-		return raisedByTransitions.size()==0;
+	
+	/**
+	 * returns the triggered transition with the given dense index
+	 * @param index
+	 * @return
+	 */
+	public ScxmlTransitionType getTransition(int index) {
+		buildIndex();
+		return indexedTransitions.get(index);
 	}
 	
-	public boolean isInternal() {
-		finalised = true;
-		return raisedByTransitions.size()>0;
+	/**
+	 * returns the combinations of triggered transitions that are available at the given refinement level.
+	 * Each combination is a mask over the dense index of the triggered transitions (see getTransition(int)).
+	 * 
+	 * The combinations are generated lazily as the returned iterable is iterated, so they are never all held at once.
+	 * Each iteration returns new masks which the caller may keep.
+	 * 
+	 * @param level
+	 * @return
+	 */
+	public Iterable<BitSet> getTransitionCombinations(int level) {
+		if (maximalStep){
+			List<BitSet> ret = new ArrayList<BitSet>();
+			for (BitSet combination : getMaximalStepCombinations(level)){
+				ret.add((BitSet) combination.clone());
+			}
+			return ret;
+		}
+		return getRegionTree().getCombinations(levelMask(level));
 	}
 	
-	public boolean equals(Trigger other){
-		return other.name == this.name;
+	/**
+	 * returns the combinations of triggered transitions that are available at the given refinement level
+	 * and contain the transition with the given dense index.
+	 * This is the same as filtering getTransitionCombinations(level) but only the wanted combinations are generated.
+	 * 
+	 * @param index
+	 * @param level
+	 * @return
+	 */
+	public Iterable<BitSet> getTransitionCombinations(int index, int level) {
+		if (maximalStep){
+			List<BitSet> ret = new ArrayList<BitSet>();
+			for (BitSet combination : getMaximalStepCombinations(level)){
+				if (combination.get(index)) ret.add((BitSet) combination.clone());
+			}
+			return ret;
+		}
+		return getRegionTree().getCombinations(levelMask(level), index);
 	}
 	
-	//// code to calculate combinations
+	/**
+	 * returns the combinations used at the given refinement level in maximal step mode.
+	 * These are the maximal combinations of the level, and the parts present at the level of the maximal combinations 
+	 * of each later level (up to the last level at which this trigger gains transitions).
+	 * The combinations of each level are found when that level is first requested (or counted within a bound - see countMaximalStepCombinations).
+	 * 
+	 * @param level
+	 * @return
+	 */
+	private List<BitSet> getMaximalStepCombinations(int level) {
+		int key = maximalStepLevel(level);
+		List<BitSet> combinations = maximalStepCombinations.get(key);
+		if (combinations==null){
+			combinations = new ArrayList<BitSet>(findMaximalStepCombinations(key, Long.MAX_VALUE));
+			maximalStepCombinations.put(key, combinations);
+		}
+		return combinations;
+	}
 	
-	private Set<Set<ScxmlTransitionType>> getCombinations(List<ScxmlTransitionType> transitionList){
-		Set<Set<ScxmlTransitionType>> combinations= new HashSet<Set<ScxmlTransitionType>>();
-		
-		//if empty return empty set of combinations
-		if (transitionList.size()==0) return combinations;
-		
-		//add the singleton with the first transition
-		HashSet<ScxmlTransitionType> singleton = new HashSet<ScxmlTransitionType>();
-		ScxmlTransitionType t0 = transitionList.get(0);
-		singleton.add(transitionList.get(0));
-		combinations.add(singleton);
-		
-		//recursion on the tail
-		Set<Set<ScxmlTransitionType>> tailCombinations = getCombinations(transitionList.subList(1, transitionList.size()));	
-		
-		//add combinations of first element with tail combinations
-		if (transitionList.size() > 1){
-			//look for valid combinations with the first transition
-			for (Set<ScxmlTransitionType> subComb : tailCombinations){
-				if (parallel(t0,subComb)){
-					Set<ScxmlTransitionType> comb = new HashSet<ScxmlTransitionType>(subComb);
-					comb.add(t0);
-					combinations.add(comb);
+	/**
+	 * returns the distinct combinations used at the given refinement level in maximal step mode, in the order they are found,
+	 * stopping as soon as there are more than the given bound
+	 * 
+	 * @param level
+	 * @param bound
+	 * @return
+	 */
+	private Set<BitSet> findMaximalStepCombinations(int level, long bound) {
+		Set<BitSet> combinations = new LinkedHashSet<BitSet>();
+		int lastLevel = getLastLevel();
+		for (int k=level; k<=lastLevel || k==level; k++){
+			for (BitSet combination : getRegionTree().getMaximalCombinations(levelMask(k))){
+				combination.and(levelMask(level));
+				if (!combination.isEmpty() && combinations.add(combination) && combinations.size()>bound){
+					return combinations;
 				}
 			}
-			//finished
 		}
-		
-		//add tail combinations without first element
-		combinations.addAll(tailCombinations);
-		
 		return combinations;
 	}
 	
 	/**
-	 * returns true if the transition is parallel with all the transitions in the collection
-	 * @param tr : scxmlTransition
-	 * @param trSet : Set<ScxmlTransitionType>
-	 * @return 
+	 * returns the level whose combinations are used at the given level in maximal step mode
+	 * (after the last level at which this trigger gains transitions, the combinations do not change)
+	 * 
+	 * @param level
+	 * @return
 	 */
-	private boolean parallel(ScxmlTransitionType tr, Set<ScxmlTransitionType> trSet) {
-		for (ScxmlTransitionType t2 : trSet){
-			if (!parallel(tr,t2)) return false;
+	private int maximalStepLevel(int level) {
+		int lastLevel = getLastLevel();
+		return level<lastLevel || lastLevel<0? level : lastLevel;
+	}
+	
+	/**
+	 * returns the last refinement level at which this trigger gains transitions (or -1 if it has none)
+	 * @return
+	 */
+	private int getLastLevel() {
+		buildIndex();
+		int lastLevel = -1;
+		for (int transitionLevel : transitionLevels){
+			lastLevel = transitionLevel>lastLevel? transitionLevel : lastLevel;
 		}
-		return true;
+		return lastLevel;
+	}
+	
+	/**
+	 * returns a mask of the triggered transitions that are present at the given refinement level
+	 * @param level
+	 * @return
+	 */
+	public BitSet getLevelMask(int level) {
+		return (BitSet) levelMask(level).clone();
 	}
 	
 	/**
-	 * returns true if 2 transitions are in parallel regions of statemachines
-	 *  and neither are initial transitions
-	 * @param tr
-	 * @param t2
+	 * returns the (shared) mask of the triggered transitions that are present at the given refinement level
+	 * @param level
 	 * @return
 	 */
-	private boolean parallel(ScxmlTransitionType t1, ScxmlTransitionType t2) {
-		if (initialTransition(t1) || initialTransition(t2)) return false;
-		EObject trParent = t1.eContainer();
-		while (trParent!=null){
-			EObject trGrandParent = trParent.eContainer();
-			if (trGrandParent instanceof ScxmlParallelType){
-				for (ScxmlStateType state : ((ScxmlParallelType)trGrandParent).getState()){
-					if (state!=trParent && contains(state, t2)){
-						return true;
-					}
+	private BitSet levelMask(int level) {
+		buildIndex();
+		BitSet mask = levelMasks.get(level);
+		if (mask==null){
+			mask = new BitSet(transitionLevels.length);
+			for (int i=0; i<transitionLevels.length; i++){
+				if (transitionLevels[i]<=level){
+					mask.set(i);
 				}
 			}
-			trParent = trGrandParent;
+			levelMasks.put(level, mask);
 		}
-		return false;
+		return mask;
 	}
-
+	
 	/**
-	 * @param t1
-	 * @param trParent
+	 * returns the largest combination available at the given refinement level that is contained in the given combination
+	 * (this may be empty).
+	 * 
+	 * Since any subset of a combination is also a combination, this is simply the part of the given combination
+	 * that is present at that level, so it is found directly rather than by searching the combinations of that level.
+	 * 
+	 * @param combination
+	 * @param level
 	 * @return
 	 */
-	private boolean initialTransition(ScxmlTransitionType t1) {
-		if (t1.eContainer() instanceof ScxmlInitialType){
-			return true;			
-		}else{
-			return false;
+	public BitSet getRefinedCombination(BitSet combination, int level) {
+		BitSet refined = (BitSet) combination.clone();
+		refined.and(levelMask(level));
+		return refined;
+	}
+	
+	/**
+	 * returns the name of the event refined by the event for the given combination at the given refinement level
+	 * if it has already been recorded, otherwise null
+	 * 
+	 * @param combination
+	 * @param level
+	 * @return
+	 */
+	public String getRefinesName(BitSet combination, int level) {
+		Map<BitSet,String> names = refinesNames.get(level);
+		return names==null? null : names.get(combination);
+	}
+	
+	/**
+	 * records the name of the event refined by the event for the given combination at the given refinement level
+	 * 
+	 * @param combination
+	 * @param level
+	 * @param refinesName
+	 */
+	public void setRefinesName(BitSet combination, int level, String refinesName) {
+		Map<BitSet,String> names = refinesNames.get(level);
+		if (names==null){
+			names = new HashMap<BitSet,String>();
+			refinesNames.put(level, names);
 		}
+		names.put((BitSet) combination.clone(), refinesName);
 	}
-
-
+	
+	/**
+	 * returns the exact number of combinations that are available at the given refinement level
+	 * without enumerating them (see RegionTree)
+	 * 
+	 * @param level
+	 * @return
+	 */
+	public long countCombinations(int level) {
+		return getRegionTree().countCombinations(levelMask(level));
+	}
+	
 	/**
-	 * @param state
-	 * @param t2
+	 * returns the exact number of maximal combinations at the given refinement level
+	 * without enumerating them (see RegionTree)
+	 * 
+	 * @param level
 	 * @return
 	 */
-	private boolean contains(EObject p, EObject e) {
-		TreeIterator<EObject> it = p.eAllContents();
-		while (it.hasNext()){
-			EObject next = it.next(); 
-			if (next == e) return true;
+	public long countMaximalCombinations(int level) {
+		return getRegionTree().countMaximalCombinations(levelMask(level));
+	}
+	
+	/**
+	 * returns the number of combinations used at the given refinement level in maximal step mode
+	 * (the maximal combinations of the level and the distinct parts of the maximal combinations of later levels),
+	 * or bound+1 if there are more than the given bound.
+	 * 
+	 * The maximal combinations of the level and all later levels are enumerated to find the parts,
+	 * so check countMaximalCombinations for each level first.
+	 * Only the distinct combinations found (at most bound+1) are held while counting.
+	 * If they are all found within the bound they are kept as the combinations of the level,
+	 * so that they are not enumerated again when they are counted again or translated.
+	 * 
+	 * @param level
+	 * @param bound
+	 * @return
+	 */
+	public long countMaximalStepCombinations(int level, long bound) {
+		List<BitSet> combinations = maximalStepCombinations.get(maximalStepLevel(level));
+		if (combinations!=null){
+			return combinations.size()>bound? bound+1 : combinations.size();
 		}
-		return false;
+		Set<BitSet> found = findMaximalStepCombinations(maximalStepLevel(level), bound);
+		if (found.size()<=bound){
+			maximalStepCombinations.put(maximalStepLevel(level), new ArrayList<BitSet>(found));
+		}
+		return found.size();
 	}
 	
+	/**
+	 * returns the number of combinations that are translated to events at the given refinement level
+	 * (in maximal step mode the combinations of each level are enumerated unless they have already been found,
+	 *  so check the budget with countMaximalCombinations and countMaximalStepCombinations first)
+	 * 
+	 * @param level
+	 * @return
+	 */
+	public long countEvents(int level) {
+		return maximalStep? countMaximalStepCombinations(level, Long.MAX_VALUE) : countCombinations(level);
+	}
+	
+	public boolean isMaximalStep() {
+		return maximalStep;
+	}
 	
+	/**
+	 * returns the names of the parallel regions that contain transitions of this trigger at the given refinement level
+	 * 
+	 * @param level
+	 * @return
+	 */
+	public Set<String> getRegionNames(int level) {
+		return getRegionTree().getRegionNames(levelMask(level));
+	}
+	
+	private RegionTree getRegionTree() {
+		buildIndex();
+		if (regionTree==null){
+			regionTree = new RegionTree(indexedTransitions, regionIndex);
+		}
+		return regionTree;
+	}
+	
+	/**
+	 * returns the refinement level of a combination
+	 * (i.e. the highest refinement level of the transitions in it)
+	 * @param combination
+	 * @return
+	 */
+	public int getLevel(BitSet combination) {
+		buildIndex();
+		int refLevel = -1;
+		for (int i = combination.nextSetBit(0); i >= 0; i = combination.nextSetBit(i+1)){
+			if (transitionLevels[i]>refLevel){
+				refLevel = transitionLevels[i];
+			}
+		}
+		return refLevel;
+	}
+		
+	public boolean isExternal() {
+		finalised = true;
+		return raisedByTransitions.size()==0;
+	}
+	
+	public boolean isInternal() {
+		finalised = true;
+		return raisedByTransitions.size()>0;
+	}
+	
+	public boolean equals(Trigger other){
+		return other.name == this.name;
+	}
+	
+	//// code to calculate combinations
+	
+	/**
+	 * gives each triggered transition a dense index and
+	 * records its refinement level
+	 */
+	private void buildIndex() {
+		finalised = true;
+		if (indexedTransitions!=null) return;
+		indexedTransitions = new ArrayList<ScxmlTransitionType>(triggeredTransitions);
+		int n = indexedTransitions.size();
+		transitionIndex = new HashMap<ScxmlTransitionType,Integer>(n*2);
+		transitionLevels = new int[n];
+		for (int i=0; i<n; i++){
+			ScxmlTransitionType tr = indexedTransitions.get(i);
+			transitionIndex.put(tr, i);
+			transitionLevels[i] = levels.get(tr);
+		}
+	}
 	
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+
+/**
+ * <p>
+ * An index of the elements (machines, contexts, statemachines and nodes) generated by a translation,
+ * keyed by refinement level and name, so that the rules can find their dependencies without
+ * searching the translated elements and the contents of the machines.
+ *
+ * The rules add elements as they generate them. Elements that are only generated indirectly
+ * (e.g. the copies made when a machine is refined) are added by the rules when they first find them
+ * by searching (see AbstractSCXMLImporterRule.findElement).
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class GeneratedElementIndex {
+
+	private final Map<Integer, Map<String, List<EObject>>> levels = new HashMap<Integer, Map<String, List<EObject>>>();
+
+	/**
+	 * adds a generated element with the given name at the given refinement level
+	 *
+	 * @param level
+	 * @param name
+	 * @param element
+	 */
+	public void put(int level, String name, EObject element) {
+		if (name==null || element==null) return;
+		Map<String, List<EObject>> names = levels.get(level);
+		if (names==null) {
+			names = new HashMap<String, List<EObject>>();
+			levels.put(level, names);
+		}
+		List<EObject> elements = names.get(name);
+		if (elements==null) {
+			elements = new ArrayList<EObject>(1);
+			names.put(name, elements);
+		}
+		if (!elements.contains(element)) {
+			elements.add(element);
+		}
+	}
+
+	/**
+	 * returns the first element added with the given name at the given refinement level
+	 * that is an instance of the given kind, or null if there is none
+	 *
+	 * @param level
+	 * @param kind
+	 * @param name
+	 * @return
+	 */
+	public EObject get(int level, EClass kind, String name) {
+		Map<String, List<EObject>> names = levels.get(level);
+		List<EObject> elements = names==null || name==null? null : names.get(name);
+		if (elements!=null) {
+			for (EObject element : elements) {
+				if (kind==element.eClass() || kind.isSuperTypeOf(element.eClass())) {
+					return element;
+				}
+			}
+		}
+		return null;
+	}
+
+}
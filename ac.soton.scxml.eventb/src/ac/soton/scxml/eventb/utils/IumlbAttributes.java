@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.FeatureMap;
+
+/**
+ * <p>
+ * The iUML-B extension attributes (held in the anyAttribute feature map) of an SCXML element.
+ *
+ * This is an EMF adapter that is attached to the element the first time its attributes are needed.
+ * The attributes that have a meaning for the translation are parsed once from the feature map
+ * into typed fields. Any notification from the element (i.e. a change to it) causes them to be parsed
+ * again on the next access. Other attributes are looked up in the feature map when needed (see getValue).
+ * The adapters are removed from the model when its translation has finished (see removeAll).
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class IumlbAttributes extends AdapterImpl {
+
+	/**
+	 * The kinds of data that an SCXML data element can be translated to
+	 */
+	public enum DataKind {VARIABLE, CONSTANT, CARRIER_SET, OTHER}
+
+	private boolean valid = false;
+	private int refinement = -1;
+	private int finalised = -1;
+	private DataKind dataKind = DataKind.VARIABLE;
+	private boolean maximalStep = false;
+	private long combinationBudget = -1;
+
+	/**
+	 * returns the attributes of the given element, attaching a new IumlbAttributes adapter to it if it has none
+	 *
+	 * @param eObject
+	 * @return
+	 */
+	public static IumlbAttributes get(EObject eObject) {
+		IumlbAttributes attributes = (IumlbAttributes) EcoreUtil.getExistingAdapter(eObject, IumlbAttributes.class);
+		if (attributes==null){
+			attributes = new IumlbAttributes();
+			eObject.eAdapters().add(attributes);
+		}
+		if (!attributes.valid){
+			attributes.parse(eObject);
+		}
+		return attributes;
+	}
+
+	/**
+	 * removes the IumlbAttributes adapters from the given element and all of its contents
+	 *
+	 * @param eObject
+	 */
+	public static void removeAll(EObject eObject) {
+		remove(eObject);
+		TreeIterator<EObject> it = eObject.eAllContents();
+		while (it.hasNext()){
+			remove(it.next());
+		}
+	}
+
+	private static void remove(EObject eObject) {
+		Object attributes = EcoreUtil.getExistingAdapter(eObject, IumlbAttributes.class);
+		if (attributes!=null){
+			eObject.eAdapters().remove(attributes);
+		}
+	}
+
+	@Override
+	public boolean isAdapterForType(Object type) {
+		return type == IumlbAttributes.class;
+	}
+
+	@Override
+	public void notifyChanged(Notification notification) {
+		if (notification.getEventType()!=Notification.REMOVING_ADAPTER && !notification.isTouch()){
+			valid = false;
+		}
+	}
+
+	/**
+	 * parses the values of the attributes of the given element that have a meaning for the translation
+	 * @param eObject
+	 */
+	private void parse(EObject eObject) {
+		refinement = parseInt(getValue(eObject, "refinement"));
+		finalised = parseInt(getValue(eObject, "finalised"));
+		Object kind = getValue(eObject, "dataKind");
+		if (!(kind instanceof String) || "Variable".equalsIgnoreCase(((String)kind).trim())){
+			dataKind = DataKind.VARIABLE;
+		}else if ("Constant".equalsIgnoreCase(((String)kind).trim())){
+			dataKind = DataKind.CONSTANT;
+		}else if ("CarrierSet".equalsIgnoreCase(((String)kind).trim())){
+			dataKind = DataKind.CARRIER_SET;
+		}else{
+			dataKind = DataKind.OTHER;
+		}
+		Object step = getValue(eObject, "maximalStep");
+		maximalStep = step instanceof String && "true".equalsIgnoreCase(((String)step).trim());
+		Object budget = getValue(eObject, "combinationBudget");
+		combinationBudget = -1;
+		if (budget instanceof String){
+			try {
+				combinationBudget = Long.parseLong(((String)budget).trim());
+			}catch (Exception e){
+				combinationBudget = -1;
+			}
+		}
+		valid = true;
+	}
+
+	/**
+	 * parses an attribute value as an int, returning -1 if it is not a String or does not parse
+	 */
+	private static int parseInt(Object value) {
+		if (value instanceof String) {
+			try {
+				return Integer.parseInt((String)value);
+			}catch (Exception e){
+				return -1;
+			}
+		}else{
+			return -1;
+		}
+	}
+
+	/**
+	 * returns the value of the attribute with the given name in the anyAttribute feature map of the given element
+	 * or null if there is none (if there is more than one, the first)
+	 * @param eObject
+	 * @param attributeName
+	 * @return
+	 */
+	public static Object getValue(EObject eObject, String attributeName) {
+		EStructuralFeature anyAttributeFeature  = eObject.eClass().getEStructuralFeature("anyAttribute");
+		if (anyAttributeFeature==null) return null;
+		FeatureMap fm = (FeatureMap) eObject.eGet(anyAttributeFeature);
+		for (int i=0; i< fm.size(); i++){
+			if (attributeName.equals(fm.getEStructuralFeature(i).getName())){
+				return fm.getValue(i);
+			}
+		}
+		return null;
+	}
+
+	public int getRefinement() {
+		return refinement;
+	}
+
+	public int getFinalised() {
+		return finalised;
+	}
+
+	public DataKind getDataKind() {
+		return dataKind;
+	}
+
+	public boolean isMaximalStep() {
+		return maximalStep;
+	}
+
+	public long getCombinationBudget() {
+		return combinationBudget;
+	}
+}
@@ -84,16 +84,7 @@ public class IumlbScxmlAdapter {
 	  */
 	  
 	  public Object getAnyAttributeValue(String attributeName){
-			EStructuralFeature anyAttributeFeature  = target.eClass().getEStructuralFeature("anyAttribute");
-			if (anyAttributeFeature==null) return null;
-			FeatureMap fm = (FeatureMap) target.eGet(anyAttributeFeature);
-			for (int i=0; i< fm.size(); i++){
-				EStructuralFeature sf = fm.getEStructuralFeature(i);
-				if (attributeName.equals(sf.getName())){
-					return fm.getValue(i);
-				}
-			}
-			return null;	  
+			return IumlbAttributes.getValue(target, attributeName);
 	  }
 	  
 	 /**
@@ -128,16 +119,7 @@ public class IumlbScxmlAdapter {
 	 * @return
 	 */
 	public int getBasicRefinementLevel(){		
-		Object level = getAnyAttributeValue("refinement");
-		if (level instanceof String) {
-			try {
-				return Integer.parseInt((String)level);
-			}catch (Exception e){
-				return -1;
-			}
-		}else{
-			return -1;
-		}
+		return IumlbAttributes.get(target).getRefinement();
 	}
 
 	
@@ -153,31 +135,40 @@ public class IumlbScxmlAdapter {
 	}
 
 	public boolean isVariable() {
-		Object dataKind = getAnyAttributeValue("dataKind");
-		return (!(dataKind instanceof String) ||  "Variable".equalsIgnoreCase(((String)dataKind).trim()));
+		return IumlbAttributes.get(target).getDataKind() == IumlbAttributes.DataKind.VARIABLE;
 	}
 	
 	public boolean isConstant() {
-		Object dataKind = getAnyAttributeValue("dataKind");
-		return (dataKind instanceof String && "Constant".equalsIgnoreCase(((String)dataKind).trim()));
+		return IumlbAttributes.get(target).getDataKind() == IumlbAttributes.DataKind.CONSTANT;
 	}
 	
 	public boolean isCarrierSet() {
-		Object dataKind = getAnyAttributeValue("dataKind");
-		return (dataKind instanceof String && "CarrierSet".equalsIgnoreCase(((String)dataKind).trim()));
+		return IumlbAttributes.get(target).getDataKind() == IumlbAttributes.DataKind.CARRIER_SET;
 	}
 
 	public Integer getFinalised() {
-		Object finalised = getAnyAttributeValue("finalised");
-		if (finalised instanceof String) {
-			try {
-				return Integer.parseInt((String)finalised);
-			}catch (Exception e){
-				return -1;
-			}
-		}else{
-			return -1;
-		}
+		return IumlbAttributes.get(target).getFinalised();
+	}
+	
+	/**
+	 * Returns true if the maximalStep attribute of this SCXML element is "true"
+	 * (i.e. only maximal combinations of transitions should be translated to events)
+	 * 
+	 * @return
+	 */
+	public boolean isMaximalStep() {
+		return IumlbAttributes.get(target).isMaximalStep();
+	}
+	
+	/**
+	 * Returns the combinationBudget attribute value for this SCXML element
+	 * (the maximum number of transition combinations allowed for any trigger)
+	 * if none, or the attribute string doesn't parse as a number, returns -1.
+	 * 
+	 * @return
+	 */
+	public long getCombinationBudget() {
+		return IumlbAttributes.get(target).getCombinationBudget();
 	}
 	
 }
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eventb.emf.core.EventBNamed;
+import org.eventb.emf.core.machine.Event;
+import org.eventb.emf.core.machine.Guard;
+import org.eventb.emf.core.machine.Machine;
+import org.eventb.emf.core.machine.MachinePackage;
+
+/**
+ * <p>
+ * The elements of a containment feature of a generated element by name (e.g. the events of a machine
+ * or the guards of an event).
+ *
+ * This is an EMF adapter that is attached to the owning element the first time one of the elements is looked up,
+ * and there is one for each feature that is looked up.
+ * It is kept in step with the feature by the notifications of the owner, so elements that are added
+ * by any means (e.g. Make.event followed by adding to the machine, or copying by refinement) are found.
+ * Elements that are added are recorded as they are added; any other change to the feature
+ * causes the names to be read again on the next lookup.
+ * (Guards inherited by extension are not included; they are found in the registry of the refined event.)
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class NamedElementRegistry<T extends EventBNamed> extends AdapterImpl {
+
+	private final EReference feature;
+	private boolean valid = false;
+	private Map<String, T> elements = new HashMap<String, T>();
+
+	private NamedElementRegistry(EReference feature) {
+		this.feature = feature;
+	}
+
+	/**
+	 * returns the registry of the events of the given machine
+	 *
+	 * @param machine
+	 * @return
+	 */
+	public static NamedElementRegistry<Event> getEvents(Machine machine) {
+		return get(machine, MachinePackage.Literals.MACHINE__EVENTS);
+	}
+
+	/**
+	 * returns the registry of the guards of the given event
+	 *
+	 * @param event
+	 * @return
+	 */
+	public static NamedElementRegistry<Guard> getGuards(Event event) {
+		return get(event, MachinePackage.Literals.EVENT__GUARDS);
+	}
+
+	/**
+	 * returns the registry of the given feature of the given owner, attaching a new NamedElementRegistry adapter to it if it has none
+	 *
+	 * @param owner
+	 * @param feature - a containment feature of the owner whose elements are of type T
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T extends EventBNamed> NamedElementRegistry<T> get(EObject owner, EReference feature) {
+		NamedElementRegistry<T> registry = (NamedElementRegistry<T>) EcoreUtil.getExistingAdapter(owner, feature);
+		if (registry==null){
+			registry = new NamedElementRegistry<T>(feature);
+			owner.eAdapters().add(registry);
+		}
+		if (!registry.valid){
+			registry.read(owner);
+		}
+		return registry;
+	}
+
+	@Override
+	public boolean isAdapterForType(Object type) {
+		return type == feature;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void notifyChanged(Notification notification) {
+		if (notification.getFeature()!=feature || notification.isTouch()) return;
+		if (notification.getEventType()==Notification.ADD){
+			add((T) notification.getNewValue());
+		}else if (notification.getEventType()==Notification.ADD_MANY){
+			for (Object element : (Collection<?>) notification.getNewValue()){
+				add((T) element);
+			}
+		}else{
+			valid = false;
+		}
+	}
+
+	/**
+	 * reads the names of the elements of the given owner
+	 * @param owner
+	 */
+	@SuppressWarnings("unchecked")
+	private void read(EObject owner) {
+		elements.clear();
+		for (Object element : (List<?>) owner.eGet(feature)){
+			add((T) element);
+		}
+		valid = true;
+	}
+
+	/**
+	 * records an element unless there is already one with the same name (in which case that is the one that is found)
+	 */
+	private void add(T element) {
+		if (element.getName()!=null && !elements.containsKey(element.getName())){
+			elements.put(element.getName(), element);
+		}
+	}
+
+	/**
+	 * returns the element with the given name or null if there is none
+	 * (if there is more than one, the first)
+	 * @param name
+	 * @return
+	 */
+	public T get(String name) {
+		return elements.get(name);
+	}
+}
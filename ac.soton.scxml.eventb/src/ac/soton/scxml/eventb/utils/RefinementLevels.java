@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.xml.type.AnyType;
+
+import ac.soton.scxml.ScxmlAssignType;
+import ac.soton.scxml.ScxmlFinalType;
+import ac.soton.scxml.ScxmlInitialType;
+import ac.soton.scxml.ScxmlRaiseType;
+import ac.soton.scxml.ScxmlScxmlType;
+import ac.soton.scxml.ScxmlStateType;
+import ac.soton.scxml.ScxmlTransitionType;
+
+/**
+ * <p>
+ * The refinement level of every element of an SCXML model.
+ *
+ * The levels are calculated in a single top-down pass over the model (following the same rules as Utils.getRefinementLevel)
+ * and stored in an identity map, so that each query is a lookup rather than a walk up the containment tree.
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class RefinementLevels {
+
+	private final Map<EObject,Integer> levels = new IdentityHashMap<EObject,Integer>();
+	//guards and parameters (AnyType) have their own rule when accessed via an adapter with their feature name
+	private final Map<EObject,Integer> adapterLevels = new IdentityHashMap<EObject,Integer>();
+	private final IumlbScxmlAdapter adapter = new IumlbScxmlAdapter();
+
+	/**
+	 * calculates the refinement levels of the given model and all of its contents
+	 * @param scxml
+	 */
+	public RefinementLevels(ScxmlScxmlType scxml) {
+		int inherited = inheritedAbove(scxml);
+		visit(scxml, inherited, inherited);
+	}
+
+	/**
+	 * creates an empty map to be built by a traversal that calls record for each element
+	 * (see ScxmlModelIndex)
+	 */
+	RefinementLevels() {
+	}
+
+	/**
+	 * returns the level inherited from above the scxml element (normally 0)
+	 * @param scxml
+	 * @return
+	 */
+	int inheritedAbove(ScxmlScxmlType scxml) {
+		for (EObject container = scxml.eContainer(); container!=null; container = container.eContainer()){
+			int basic = adapter.adapt(container).getBasicRefinementLevel();
+			if (basic>=0){
+				return basic;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * records the level of the given element and visits its contents
+	 *
+	 * @param eObject
+	 * @param parentInherited - the level given by the nearest refinement attribute of the parent or its ancestors (or 0)
+	 * @param parentLevel - the refinement level of the parent
+	 */
+	private void visit(EObject eObject, int parentInherited, int parentLevel) {
+		int[] recorded = record(eObject, parentInherited, parentLevel);
+		for (EObject child : eObject.eContents()){
+			visit(child, recorded[0], recorded[1]);
+		}
+	}
+
+	/**
+	 * records the level of the given element in a top-down traversal
+	 *
+	 * @param eObject
+	 * @param parentInherited - the level given by the nearest refinement attribute of the parent or its ancestors (or 0)
+	 * @param parentLevel - the refinement level of the parent
+	 * @return {inherited, level} to be passed as parentInherited and parentLevel for the children of eObject
+	 */
+	int[] record(EObject eObject, int parentInherited, int parentLevel) {
+		int basic = adapter.adapt(eObject).getBasicRefinementLevel();
+		int inherited = basic>=0? basic : parentInherited;
+		int level;
+		if (eObject instanceof ScxmlTransitionType){
+			//use the level of the containing element
+			level = parentLevel;
+		}else if (eObject instanceof ScxmlRaiseType || eObject instanceof ScxmlAssignType){
+			level = basic>=0? basic : parentLevel;
+		}else if (eObject instanceof ScxmlStateType || eObject instanceof ScxmlFinalType || eObject instanceof ScxmlInitialType){
+			//states start from their parent's level
+			level = parentInherited;
+		}else{
+			level = inherited;
+		}
+		levels.put(eObject, level);
+		if (eObject instanceof AnyType){
+			//(the containment feature is the guard or parameter entry of the containing element's any feature map)
+			EStructuralFeature feature = eObject.eContainmentFeature();
+			String featureName = feature==null? null : feature.getName();
+			if ("parameter".equals(featureName) || "guard".equals(featureName)){
+				adapterLevels.put(eObject, basic>=0? basic : parentLevel);
+			}
+		}
+		return new int[] {inherited, level};
+	}
+
+	/**
+	 * returns the refinement level of the given SCXML element or IumlbScxmlAdapter
+	 * (see Utils.getRefinementLevel, which is used for elements that are not in the model)
+	 *
+	 * @param scxml
+	 * @return
+	 */
+	public int get(Object scxml) {
+		Integer level = null;
+		if (scxml instanceof IumlbScxmlAdapter){
+			IumlbScxmlAdapter scxmlAdapter = (IumlbScxmlAdapter)scxml;
+			if (scxmlAdapter.target instanceof AnyType && ("parameter".equals(scxmlAdapter.featureName) || "guard".equals(scxmlAdapter.featureName))){
+				level = adapterLevels.get(scxmlAdapter.target);
+			}else{
+				level = levels.get(scxmlAdapter.target);
+			}
+		}else{
+			level = levels.get(scxml);
+		}
+		return level==null? Utils.getRefinementLevel(scxml) : level;
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EObject;
+
+import ac.soton.scxml.ScxmlParallelType;
+import ac.soton.scxml.ScxmlScxmlType;
+import ac.soton.scxml.ScxmlTransitionType;
+
+/**
+ * <p>
+ * An index of the parallel regions of an SCXML model.
+ *
+ * The model is traversed once and each element of interest (parallels, their children and transitions)
+ * is numbered in traversal order, so that the regions of a parallel can be put in model order
+ * by comparing numbers (see RegionTree).
+ * The transitions of the model are also listed in document order.
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class RegionIndex {
+
+	private final Map<EObject, Integer> positions = new HashMap<EObject, Integer>();
+	private final List<ScxmlTransitionType> transitions = new ArrayList<ScxmlTransitionType>();
+	private int counter = 0;
+
+	/**
+	 * builds the index for the given SCXML model
+	 * @param scxml
+	 */
+	public RegionIndex(ScxmlScxmlType scxml) {
+		visit(scxml);
+	}
+
+	/**
+	 * creates an empty index to be built by a traversal that calls enter for each element
+	 * (see ScxmlModelIndex)
+	 */
+	RegionIndex() {
+	}
+
+	/**
+	 * depth first traversal that numbers the elements
+	 *
+	 * @param eObject
+	 */
+	private void visit(EObject eObject) {
+		enter(eObject);
+		for (EObject child : eObject.eContents()) {
+			visit(child);
+		}
+	}
+
+	/**
+	 * numbers the given element on entry to it in a depth first traversal
+	 *
+	 * @param eObject
+	 */
+	void enter(EObject eObject) {
+		int enter = counter++;
+		if (eObject instanceof ScxmlTransitionType) {
+			transitions.add((ScxmlTransitionType) eObject);
+		}
+		if (isIndexed(eObject)) {
+			positions.put(eObject, enter);
+		}
+	}
+
+	private boolean isIndexed(EObject eObject) {
+		return eObject.eContainer() instanceof ScxmlParallelType || eObject instanceof ScxmlParallelType || eObject instanceof ScxmlTransitionType;
+	}
+
+	/**
+	 * returns the position of the given indexed element in the traversal order
+	 * or -1 if the element is not indexed
+	 * @param eObject
+	 * @return
+	 */
+	public int positionOf(EObject eObject) {
+		Integer position = positions.get(eObject);
+		return position==null? -1 : position;
+	}
+
+	/**
+	 * returns all the transitions of the model in document order
+	 * @return
+	 */
+	public List<ScxmlTransitionType> getTransitions() {
+		return Collections.unmodifiableList(transitions);
+	}
+
+}
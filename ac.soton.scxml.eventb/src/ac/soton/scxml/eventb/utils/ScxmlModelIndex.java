@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EObject;
+
+import ac.soton.scxml.ScxmlParallelType;
+import ac.soton.scxml.ScxmlRaiseType;
+import ac.soton.scxml.ScxmlScxmlType;
+import ac.soton.scxml.ScxmlStateType;
+import ac.soton.scxml.ScxmlTransitionType;
+import ac.soton.scxml.eventb.rules.Trigger;
+
+/**
+ * <p>
+ * An index of an SCXML model that is built by a single traversal at the start of the translation
+ * and shared by the rules (via the translator storage).
+ *
+ * The traversal feeds the region index and the refinement levels, and collects the refinement depth,
+ * the transitions by target, the initial references (initial attributes) by target and the parallels.
+ * The triggers are then built from the collected transitions.
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class ScxmlModelIndex {
+
+	private final ScxmlScxmlType scxml;
+	private final RegionIndex regionIndex = new RegionIndex();
+	private final RefinementLevels levels = new RefinementLevels();
+	private int depth = 0;
+	private final Map<String, Trigger> triggers = new HashMap<String, Trigger>();
+	private final Map<String, List<ScxmlTransitionType>> transitionsByTarget = new HashMap<String, List<ScxmlTransitionType>>();
+	private final Map<String, List<EObject>> initialReferences = new HashMap<String, List<EObject>>();
+	private final List<ScxmlParallelType> parallels = new ArrayList<ScxmlParallelType>();
+
+	/**
+	 * indexes the given model
+	 *
+	 * @param scxml
+	 * @throws Exception if the triggers cannot be set up
+	 */
+	public ScxmlModelIndex(ScxmlScxmlType scxml) throws Exception {
+		this.scxml = scxml;
+		int inherited = levels.inheritedAbove(scxml);
+		visit(scxml, inherited, inherited);
+		findTriggers();
+	}
+
+	/**
+	 * depth first traversal that records each element in all of the indexes
+	 *
+	 * @param eObject
+	 * @param parentInherited - (see RefinementLevels)
+	 * @param parentLevel - the refinement level of the parent
+	 */
+	private void visit(EObject eObject, int parentInherited, int parentLevel) {
+		regionIndex.enter(eObject);
+		int[] recorded = levels.record(eObject, parentInherited, parentLevel);
+		if (eObject != scxml) {
+			int ref = IumlbAttributes.get(eObject).getRefinement();
+			depth = ref>depth? ref : depth;
+		}
+		if (eObject instanceof ScxmlScxmlType) {
+			for (String target : ((ScxmlScxmlType)eObject).getInitial()) {
+				add(initialReferences, target, eObject);
+			}
+		}else if (eObject instanceof ScxmlStateType) {
+			List<String> initial = ((ScxmlStateType)eObject).getInitial1();
+			if (initial!=null) {
+				for (String target : initial) {
+					add(initialReferences, target, eObject);
+				}
+			}
+		}else if (eObject instanceof ScxmlParallelType) {
+			parallels.add((ScxmlParallelType)eObject);
+		}else if (eObject instanceof ScxmlTransitionType) {
+			ScxmlTransitionType transition = (ScxmlTransitionType)eObject;
+			for (String target : transition.getTarget()) {
+				add(transitionsByTarget, target, transition);
+			}
+		}
+		for (EObject child : eObject.eContents()) {
+			visit(child, recorded[0], recorded[1]);
+		}
+	}
+
+	private static <K,V> void add(Map<K, List<V>> map, K key, V value) {
+		if (key==null) return;
+		List<V> values = map.get(key);
+		if (values==null) {
+			values = new ArrayList<V>();
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * calculate trigger data for the transitions (in document order)
+	 * (triggers are only represented in the scxml model by string attributes of transitions
+	 *  so much of their details are implicit - hence the need to calculate this before the translation starts)
+	 *
+	 * @throws Exception
+	 */
+	private void findTriggers() throws Exception {
+		boolean maximalStep = IumlbAttributes.get(scxml).isMaximalStep();
+		for (ScxmlTransitionType scxmlTransition : regionIndex.getTransitions()) {
+			//record any trigger that triggers this transition (including the null trigger)
+			String triggerName = scxmlTransition.getEvent();
+			if (triggerName==null || triggerName.trim().length()==0) triggerName = "null"; //make sure it is not an empty identifier
+			Trigger trigger = triggers.get(triggerName);
+			if (trigger == null){
+				trigger = new Trigger(triggerName, regionIndex, levels, maximalStep);
+				triggers.put(triggerName, trigger);
+			}
+			trigger.addTriggeredTransition(scxmlTransition);
+
+			//record any triggers raised by this transition
+			for (ScxmlRaiseType raise : scxmlTransition.getRaise()){
+				String raisedTriggerName = raise.getEvent();
+				Trigger raisedTrigger = triggers.get(raisedTriggerName);
+				if (raisedTrigger == null){
+					raisedTrigger = new Trigger(raisedTriggerName, regionIndex, levels, maximalStep);
+					triggers.put(raisedTriggerName, raisedTrigger);
+				}
+				raisedTrigger.addRaisedByTransition(raise);
+			}
+		}
+	}
+
+	public ScxmlScxmlType getScxml() {
+		return scxml;
+	}
+
+	/**
+	 * returns the number of refinements needed (the highest refinement attribute of any contained element)
+	 * @return
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public RegionIndex getRegionIndex() {
+		return regionIndex;
+	}
+
+	public RefinementLevels getRefinementLevels() {
+		return levels;
+	}
+
+	/**
+	 * returns the triggers of the model by name (the trigger of untriggered transitions is named "null")
+	 * @return
+	 */
+	public Map<String, Trigger> getTriggers() {
+		return triggers;
+	}
+
+	/**
+	 * returns the transitions that have the given id as one of their targets
+	 * @param id
+	 * @return
+	 */
+	public List<ScxmlTransitionType> getTransitionsTo(String id) {
+		List<ScxmlTransitionType> ret = transitionsByTarget.get(id);
+		return ret==null? Collections.<ScxmlTransitionType>emptyList() : Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * returns the elements (the scxml element or states) whose initial attribute names the given id
+	 * @param id
+	 * @return
+	 */
+	public List<EObject> getInitialReferences(String id) {
+		List<EObject> ret = initialReferences.get(id);
+		return ret==null? Collections.<EObject>emptyList() : Collections.unmodifiableList(ret);
+	}
+
+	/**
+	 * returns the parallels of the model in document order
+	 * @return
+	 */
+	public List<ScxmlParallelType> getParallels() {
+		return Collections.unmodifiableList(parallels);
+	}
+}
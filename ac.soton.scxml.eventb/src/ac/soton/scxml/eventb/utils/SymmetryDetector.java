@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2020 University of Southampton.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    University of Southampton - initial API and implementation
+ *******************************************************************************/
+/**
+ *
+ */
+package ac.soton.scxml.eventb.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.emf.ecore.EObject;
+
+import ac.soton.scxml.ScxmlAssignType;
+import ac.soton.scxml.ScxmlFinalType;
+import ac.soton.scxml.ScxmlParallelType;
+import ac.soton.scxml.ScxmlRaiseType;
+import ac.soton.scxml.ScxmlStateType;
+import ac.soton.scxml.ScxmlTransitionType;
+
+/**
+ * <p>
+ * Finds the replicated regions of the parallels in an SCXML model.
+ *
+ * Two state children of a parallel are replicas (symmetric) if they have the same shape:
+ * the same nested elements, transitions, triggers, conditions, guards and refinement levels,
+ * where every identifier that starts with the region's own id is compared with that prefix removed
+ * (e.g. ch1_idle in region ch1 matches ch2_idle in region ch2).
+ *
+ * </p>
+ *
+ * @author cfs
+ * @version
+ * @see
+ * @since
+ */
+public class SymmetryDetector {
+
+	private final Map<ScxmlParallelType, List<List<ScxmlStateType>>> symmetryClasses = new LinkedHashMap<ScxmlParallelType, List<List<ScxmlStateType>>>();
+
+	/**
+	 * finds the replicated regions of the given parallels
+	 * @param parallels - (see ScxmlModelIndex.getParallels)
+	 */
+	public SymmetryDetector(List<ScxmlParallelType> parallels) {
+		for (ScxmlParallelType parallel : parallels){
+			Map<String, List<ScxmlStateType>> bySignature = new LinkedHashMap<String, List<ScxmlStateType>>();
+			for (ScxmlStateType region : parallel.getState()){
+				String signature = getSignature(region);
+				List<ScxmlStateType> replicas = bySignature.get(signature);
+				if (replicas==null){
+					replicas = new ArrayList<ScxmlStateType>();
+					bySignature.put(signature, replicas);
+				}
+				replicas.add(region);
+			}
+			List<List<ScxmlStateType>> classes = new ArrayList<List<ScxmlStateType>>();
+			for (List<ScxmlStateType> replicas : bySignature.values()){
+				if (replicas.size()>1) classes.add(Collections.unmodifiableList(replicas));
+			}
+			if (!classes.isEmpty()){
+				symmetryClasses.put(parallel, classes);
+			}
+		}
+	}
+
+	/**
+	 * returns a textual description of the replicated regions that are among the given regions
+	 * (only classes with more than one such region are described)
+	 * @param regionNames - the ids of the regions of interest (e.g. Trigger.getRegionNames)
+	 * @return
+	 */
+	public String getReport(Collection<String> regionNames) {
+		String report = "";
+		for (Map.Entry<ScxmlParallelType, List<List<ScxmlStateType>>> entry : symmetryClasses.entrySet()){
+			for (List<ScxmlStateType> replicas : entry.getValue()){
+				String ids = "";
+				int count = 0;
+				for (ScxmlStateType region : replicas){
+					if (!regionNames.contains(region.getId())) continue;
+					ids = ids.length()==0? region.getId() : ids+", "+region.getId();
+					count++;
+				}
+				if (count>1){
+					report = report+"\n  "+entry.getKey().getId()+": "+count+" replicas ["+ids+"]";
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * returns a description of the shape of a region with the region's id prefix removed from its identifiers
+	 * @param region
+	 * @return
+	 */
+	public static String getSignature(ScxmlStateType region) {
+		String id = region.getId();
+		Pattern prefix = id==null || id.length()==0? null : Pattern.compile("(?<![A-Za-z0-9_])"+Pattern.quote(id));
+		StringBuilder signature = new StringBuilder();
+		appendSignature(region, prefix, signature);
+		return signature.toString();
+	}
+
+	private static void appendSignature(EObject element, Pattern prefix, StringBuilder signature) {
+		IumlbScxmlAdapter adapter = new IumlbScxmlAdapter(element);
+		signature.append('(').append(element.eClass().getName());
+		signature.append(" r=").append(adapter.getBasicRefinementLevel());
+		if (element instanceof ScxmlStateType){
+			signature.append(" id=").append(normalise(((ScxmlStateType)element).getId(), prefix));
+		}else if (element instanceof ScxmlParallelType){
+			signature.append(" id=").append(normalise(((ScxmlParallelType)element).getId(), prefix));
+		}else if (element instanceof ScxmlFinalType){
+			signature.append(" id=").append(normalise(((ScxmlFinalType)element).getId(), prefix));
+		}else if (element instanceof ScxmlTransitionType){
+			ScxmlTransitionType transition = (ScxmlTransitionType)element;
+			signature.append(" event=").append(normalise(transition.getEvent(), prefix));
+			signature.append(" target=").append(normalise(String.valueOf(transition.getTarget()), prefix));
+			signature.append(" cond=").append(normalise(transition.getCond(), prefix));
+			for (IumlbScxmlAdapter guard : adapter.getGuards()){
+				signature.append(" guard=").append(normalise((String)guard.getAnyAttributeValue("predicate"), prefix));
+			}
+		}else if (element instanceof ScxmlRaiseType){
+			signature.append(" event=").append(normalise(((ScxmlRaiseType)element).getEvent(), prefix));
+		}else if (element instanceof ScxmlAssignType){
+			signature.append(" location=").append(normalise(((ScxmlAssignType)element).getLocation(), prefix));
+			signature.append(" expr=").append(normalise(((ScxmlAssignType)element).getExpr(), prefix));
+		}
+		for (EObject child : element.eContents()){
+			appendSignature(child, prefix, signature);
+		}
+		signature.append(')');
+	}
+
+	private static String normalise(String text, Pattern prefix) {
+		if (text==null || prefix==null) return text;
+		return prefix.matcher(text).replaceAll(Matcher.quoteReplacement("*"));
+	}
+}
@@ -17,13 +17,13 @@
 package ac.soton.scxml.eventb.utils;
 
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.TreeIterator;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
@@ -38,7 +38,6 @@ import org.eventb.emf.core.machine.Machine;
 import org.eventb.emf.core.machine.MachinePackage;
 
 import ac.soton.emf.translator.TranslationDescriptor;
-import ac.soton.emf.translator.utils.Find;
 import ac.soton.eventb.emf.core.extension.navigator.refiner.AbstractElementRefiner;
 import ac.soton.eventb.emf.core.extension.navigator.refiner.ElementRefinerRegistry;
 import ac.soton.scxml.ScxmlAssignType;
@@ -92,16 +91,16 @@ public class Utils {
 	 * Finds an event for the given transitions combination in the given machine or descriptors
 	 *  if no such event is found a new event is created and added to the machine
 	 *  
-	 * @param machine
-	 * @param translatedElements
-	 * @param triggerName
-	 * @param combi
+	 * @param ref
+	 * @param descriptors
+	 * @param trigger
+	 * @param combi - mask over the trigger's transition index
 	 * @return
 	 */
-	public static Event getOrCreateEvent(Refinement ref, List<TranslationDescriptor> descriptors, Trigger trigger, Set<ScxmlTransitionType> combi, int depth) {
-		printCombi("getOrCreateEvent",combi, ref);
-		String eventName = getCombiEventName(trigger.getName(), combi);		//PARAMETERS REMOVED... ref.machine, descriptors,
-		Event ev = getOrCreateEvent(ref.machine, false, descriptors,eventName); 
+	public static Event getOrCreateEvent(Refinement ref, List<TranslationDescriptor> descriptors, Trigger trigger, BitSet combi) {
+		printCombi("getOrCreateEvent", trigger, combi, ref);
+		String eventName = getCombiEventName(trigger, combi);		//PARAMETERS REMOVED... ref.machine, descriptors,
+		Event ev = getOrCreateEvent(ref.machine, false, eventName); 
 		if ("null".equals(trigger.getName())) {
 			ev.setComment("<INTERNAL><PRIORITY=3>  UNTRIGGERED TRANSITIONS "+ev.getComment());	//annotate transition events as internal for scenario checker 
 		}else if (trigger.isInternal()){
@@ -109,7 +108,7 @@ public class Utils {
 		}else {
 			ev.setComment("<INTERNAL><PRIORITY=1>  EXTERNAL TRIGGERED TRANSITIONS "+ev.getComment());	//annotate transition events as internal for scenario checker 
 		}
-		String refinedEventName = getRefinesName(ref, trigger, combi, depth);
+		String refinedEventName = getRefinesName(ref, trigger, combi);
 		if (!ev.getRefinesNames().contains(refinedEventName)){
 			ev.getRefinesNames().add(refinedEventName);
 		}
@@ -201,10 +200,32 @@ public class Utils {
 		return refinementLevel;
 	}
 
+	/**
+	 * This finds the refinement depth required by the given Scxml model
+	 * (i.e. the highest refinement level given by an iumlb:refinement attribute in it)
+	 * 
+	 * @param scxml
+	 * @return integer representing the number of refinements needed
+	 */
+	public static int getRefinementDepth(ScxmlScxmlType scxml) {
+		int depth = 0;
+		//stream over the contents - only elements with an anyAttribute feature can have a refinement attribute
+		TreeIterator<EObject> it = scxml.eAllContents();
+		while (it.hasNext()){
+			EObject eObject = it.next();
+			if (eObject.eClass().getEStructuralFeature("anyAttribute")==null) continue;
+			int ref = IumlbAttributes.get(eObject).getRefinement();
+			depth = ref>depth? ref : depth;
+		}
+		return depth;
+	}
 	
 	/**
 	 * refine - this makes a new element that refines the abstract one
 	 * 
+	 * (The rules refine each element into the next level as soon as it is made, before anything else is added to it,
+	 * so each copy is only of the new element.)
+	 * 
 	 * @param sourceElement  - contained in a resource (used as basis for constructing a URI for the abstract element)
 	 * @param abstractElement - to be refined (must be contained in a machine but not necessarily in a resource)
 	 * @return refined element
@@ -272,19 +293,17 @@ public class Utils {
 ///////////////////////////////////////////////////////////	
 	
 	/**
-	 * This finds an event in the given machine by name by looking in the following (in this order)
-	 *  the given machine's events
-	 *  the given list of GenerationDescriptors
+	 * This finds an event in the given machine by name (using the machine's event registry)
 	 *  if no such event is found a new event is created and added to the machine
+	 *  (events are not generated as descriptors so there is no need to look in the descriptors)
 	 *  
 	 * @param machine
-	 * @param descriptors
+	 * @param extended
 	 * @param eventName
 	 * @return
 	 */
-	private static Event getOrCreateEvent(Machine machine, boolean extended, List<TranslationDescriptor> descriptors, String eventName) {
-		Event ev = (Event) findNamedElement(machine.getEvents(), eventName);
-		if (ev==null) ev =  (Event) Find.translatedElement(descriptors, machine, MachinePackage.Literals.MACHINE__EVENTS, eventName);
+	private static Event getOrCreateEvent(Machine machine, boolean extended, String eventName) {
+		Event ev = NamedElementRegistry.getEvents(machine).get(eventName);
 		if (ev==null) {
 			ev = (Event) Make.event(eventName, extended, Convergence.ORDINARY, Collections.<String> emptyList(), "");
 			machine.getEvents().add(ev);
@@ -314,12 +333,13 @@ public class Utils {
 	 * @param combi
 	 * @return
 	 */
-	private static String getRefinesName(Refinement ref, Trigger trigger, Set<ScxmlTransitionType> combi, int depth) {
+	private static String getRefinesName(Refinement ref, Trigger trigger, BitSet combi) {
 		//set the event refinement up
-		String refinedEventName = null;						
-		Set<ScxmlTransitionType> refinedCombi = findRefinedCombi(trigger, combi, ref, depth);
-		if (refinedCombi.size()>0){   
-			refinedEventName =  Utils.getCombiEventName(trigger.getName(), refinedCombi); ///parameters removed... ref.machine, descriptors, ;
+		String refinedEventName = trigger.getRefinesName(combi, ref.level);
+		if (refinedEventName!=null) return refinedEventName;
+		BitSet refinedCombi = findRefinedCombi(trigger, combi, ref);
+		if (!refinedCombi.isEmpty()){   
+			refinedEventName =  Utils.getCombiEventName(trigger, refinedCombi); ///parameters removed... ref.machine, descriptors, ;
 		}else{
 			if ("null".equals(trigger.getName())){
 					refinedEventName = Strings.untriggeredEventName;
@@ -327,63 +347,37 @@ public class Utils {
 				refinedEventName = Strings.consumeTriggerEventName;								
 			}
 		}
+		trigger.setRefinesName(combi, ref.level, refinedEventName);
 		return refinedEventName;
 	}
 
 	/**
 	 * finds a combi that the given combi should refine
 	 * 
-	 * @param triggerName 
+	 * @param trigger 
 	 * @param combi
 	 * @param ref
 	 * @return
-	 * @throws Exception 
 	 */
-	private static Set<ScxmlTransitionType> findRefinedCombi(Trigger trigger, Set<ScxmlTransitionType> combi, Refinement ref, int depth)  {
-		if (ref.level==0) return Collections.emptySet();
-		//first find all possible candidates that are subsets in the previous refinement level (can include itself)
-		Set<Set<ScxmlTransitionType>> possibles = new HashSet<Set<ScxmlTransitionType>>();
-		for (Set<ScxmlTransitionType> otherCombi : trigger.getTransitionCombinations(ref.level-1, depth)){
-			if (isSubset(combi,otherCombi)){
-				possibles.add(otherCombi);
-			}
-		}
-		// now find the biggest subset out of these possibles
-		Set<ScxmlTransitionType> refinedCombi = Collections.emptySet();
-		for (Set<ScxmlTransitionType> poss : possibles){
-			if (isSubset(poss, refinedCombi)){
-				refinedCombi = poss;
-			}
-		}
-		return refinedCombi;
-	}
-
-
-	/**
-	 * @param combi
-	 * @param otherCombi
-	 * @return
-	 */
-	private static boolean isSubset(Set<ScxmlTransitionType> combi, Set<ScxmlTransitionType> otherCombi) {
-		for (ScxmlTransitionType tr : otherCombi){
-			if (!combi.contains(tr)){
-				return false;
-			}
-		}
-		return true;
+	private static BitSet findRefinedCombi(Trigger trigger, BitSet combi, Refinement ref)  {
+		if (ref.level==0) return new BitSet();
+		//the biggest combination in the previous refinement level that is a subset (can be itself)
+		return trigger.getRefinedCombination(combi, ref.level-1);
 	}
 	
 	/**
-	 * constructs a name from a trigger name and a set of transitions.
+	 * constructs a name from a trigger name and a combination of its transitions.
 	 * Any transitions that do not have a ScxmlStateType source are ignored.
 	 * 
-	 * @param triggerName
+	 * @param trigger
 	 * @param combi
 	 * @return
 	 */
-	private static String getCombiEventName(String triggerName, Set<ScxmlTransitionType> combi) {
+	private static String getCombiEventName(Trigger trigger, BitSet combi) {
+		String triggerName = trigger.getName();
 		String eventName = (triggerName == null || triggerName.length()==0 || "null".equals(triggerName))? "" : triggerName;
-		for (ScxmlTransitionType tr : combi){
+		for (int i = combi.nextSetBit(0); i >= 0; i = combi.nextSetBit(i+1)){
+			ScxmlTransitionType tr = trigger.getTransition(i);
 			if (tr.eContainer() instanceof ScxmlStateType){
 				String basicEventName = Utils.getBasicEventName(tr);
 				eventName = eventName.length()==0 ?  basicEventName : eventName+ "__" + basicEventName;
@@ -440,10 +434,11 @@ public class Utils {
 	
 	
 	//FIXME: for debugging only
-	private static void printCombi(String string, Set<ScxmlTransitionType> combi, Refinement ref){
+	private static void printCombi(String string, Trigger trigger, BitSet combi, Refinement ref){
 		System.out.println("******Combi*******");
 		System.out.println("Refinement Level: "+ref.level+" :: code: "+string);
-		for (ScxmlTransitionType tr:combi){
+		for (int i = combi.nextSetBit(0); i >= 0; i = combi.nextSetBit(i+1)){
+			ScxmlTransitionType tr = trigger.getTransition(i);
 			String source = 
 					tr.eContainer() instanceof ScxmlStateType? ((ScxmlStateType)tr.eContainer()).getId() :
 					(tr.eContainer() instanceof ScxmlInitialType? "Initial" : //((ScxmlInitialType)tr.eContainer()).getId() :